@@ -0,0 +1,44 @@
+package postagger.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Viberti decoding of development set sentences of different lengths.
+ * Consecutive invocations decode different sentences of the same length.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class DecodingBenchmark {
+
+    private static final int NUM_OF_SENTENCES = 64;
+
+    @Param({"5", "25", "100", "500"})
+    public int sentenceLength;
+
+    private Tagger tagger;
+    private String[][] sentences;
+    private int next;
+
+    @Setup
+    public void setUp(){
+        tagger = Fixtures.trainedTagger();
+
+        List<String> words = Fixtures.devtWords();
+        sentences = new String[NUM_OF_SENTENCES][];
+        for (int i = 0; i < NUM_OF_SENTENCES; i++)
+            sentences[i] = Fixtures.sentence(words, i * sentenceLength, sentenceLength);
+    }
+
+    @Benchmark
+    public int[] viberti(){
+        next = (next + 1) % NUM_OF_SENTENCES;
+        return tagger.viberti(sentences[next]);
+    }
+}
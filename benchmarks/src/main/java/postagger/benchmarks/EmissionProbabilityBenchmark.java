@@ -0,0 +1,32 @@
+package postagger.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Emission probability of the pos_model for a known and an unknown word.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class EmissionProbabilityBenchmark {
+
+    @Param({"the", "xylophonist"})
+    public String word;
+
+    private Tagger tagger;
+
+    @Setup
+    public void setUp(){
+        tagger = Fixtures.trainedTagger();
+    }
+
+    @Benchmark
+    public double emissionProb(){
+        return tagger.getEmissionProb(word, "NN");
+    }
+}
@@ -0,0 +1,70 @@
+package postagger.benchmarks;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Benchmark fixtures built from the development set.
+ * The path of the development set is the system property postagger.devt,
+ * by default dataset/sents.devt of the working directory or of its parent.
+ */
+public final class Fixtures {
+
+    private Fixtures(){
+    }
+
+    // A new tagger, the bridge is in the default package so it is created by reflection
+    public static Tagger newTagger(){
+        try {
+            return (Tagger) Class.forName("tagger_bridge").getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("tagger_bridge is not on the class path", e);
+        }
+    }
+
+    // A tagger trained on the development set
+    public static Tagger trainedTagger(){
+        Tagger tagger = newTagger();
+        tagger.train(devtFile());
+        tagger.createModel();
+        return tagger;
+    }
+
+    public static File devtFile(){
+        String path = System.getProperty("postagger.devt");
+        if (path != null)
+            return new File(path);
+
+        File file = new File("dataset/sents.devt");
+        return file.exists() ? file : new File("../dataset/sents.devt");
+    }
+
+    // The words of the development set, normalized by the tokenizer of the tagger
+    public static List<String> devtWords(){
+        Tagger tagger = newTagger();
+        List<String> words = new ArrayList<>();
+        try {
+            BufferedReader r = new BufferedReader(new InputStreamReader(new FileInputStream(devtFile()), StandardCharsets.UTF_8));
+            try {
+                String line;
+                while ((line = r.readLine()) != null)
+                    words.addAll(tagger.taggedWords(line));
+            } finally {
+                r.close();
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return words;
+    }
+
+    // A sentence of the given length made of consecutive development set words
+    public static String[] sentence(List<String> words, int offset, int length){
+        String[] sentence = new String[length];
+        for (int i = 0; i < length; i++)
+            sentence[i] = words.get((offset + i) % words.size());
+        return sentence;
+    }
+}
@@ -0,0 +1,45 @@
+package postagger.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Loading a model trained on the development set until it is ready for decoding,
+ * from the binary model file format and from the old serialized format.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class LoadingBenchmark {
+
+    @Param({"binary", "serialized"})
+    public String format;
+
+    private Tagger tagger;
+    private File binaryModelFile, serializedModelFile;
+
+    @Setup
+    public void setUp() throws IOException {
+        tagger = Fixtures.trainedTagger();
+        binaryModelFile = File.createTempFile("postagger", ".model");
+        serializedModelFile = File.createTempFile("postagger", ".ser");
+        tagger.saveModel(binaryModelFile, serializedModelFile);
+    }
+
+    @TearDown
+    public void tearDown(){
+        binaryModelFile.delete();
+        serializedModelFile.delete();
+    }
+
+    @Benchmark
+    public Object loadModel() throws IOException {
+        return format.equals("binary") ? tagger.loadModel(binaryModelFile) : tagger.loadSerializedModel(serializedModelFile);
+    }
+}
@@ -0,0 +1,39 @@
+package postagger.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Operations of the tagger measured by the benchmarks.
+ * The tagger classes are in the default package, which cannot be used from a named package,
+ * so the benchmarks reach them through this interface. It is implemented by tagger_bridge.
+ */
+public interface Tagger {
+
+    // Counts the POS-tagged training file with build_tagger
+    void train(File trainingFile);
+
+    // Creates the model of the last training with the Laplace smoothing of the unknown words
+    void createModel();
+
+    // Saves the model in the binary and in the old serialized model file formats
+    void saveModel(File binaryModelFile, File serializedModelFile) throws IOException;
+
+    // Loads a model file, the result is a compiled model
+    Object loadModel(File binaryModelFile) throws IOException;
+    Object loadSerializedModel(File serializedModelFile) throws IOException;
+
+    // Normalized words of the tagged tokens of a POS-tagged line, with the tokenizer of the training
+    List<String> taggedWords(String line);
+
+    // Decodes a normalized sentence with the compiled model
+    int[] viberti(String[] words);
+
+    // Enables the vectorized max-plus of the decoding, returns false if the Vector API is not available
+    boolean setVectorized(boolean vectorized);
+
+    // Probabilities of the pos_model
+    double getEmissionProb(String word, String tag);
+    double getTransitionProb(String prev, String curr);
+}
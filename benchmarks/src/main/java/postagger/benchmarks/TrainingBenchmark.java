@@ -0,0 +1,33 @@
+package postagger.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Counting the development set with build_tagger.trainModelParameters.
+ * One operation is one pass over the development set.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class TrainingBenchmark {
+
+    private Tagger tagger;
+    private File trainingFile;
+
+    @Setup
+    public void setUp(){
+        tagger = Fixtures.newTagger();
+        trainingFile = Fixtures.devtFile();
+    }
+
+    @Benchmark
+    public void trainModelParameters(){
+        tagger.train(trainingFile);
+    }
+}
@@ -0,0 +1,29 @@
+package postagger.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Transition probability of the pos_model.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class TransitionProbabilityBenchmark {
+
+    private Tagger tagger;
+
+    @Setup
+    public void setUp(){
+        tagger = Fixtures.trainedTagger();
+    }
+
+    @Benchmark
+    public double transitionProb(){
+        return tagger.getTransitionProb("DT", "NN");
+    }
+}
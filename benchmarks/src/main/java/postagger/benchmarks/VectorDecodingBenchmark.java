@@ -0,0 +1,56 @@
+package postagger.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Viberti decoding with the scalar and with the vectorized max-plus.
+ * Every few words of the sentences are unknown, the vectorized max-plus is only used after the words with many candidates.
+ * The forked JVM adds the incubating Vector API module, so this benchmark needs JDK 17 or later.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"--add-modules", "jdk.incubator.vector"})
+@State(Scope.Thread)
+public class VectorDecodingBenchmark {
+
+    private static final int NUM_OF_SENTENCES = 64;
+    private static final int SENTENCE_LENGTH = 25;
+
+    @Param({"false", "true"})
+    public boolean vectorized;
+
+    // One word in unknownWordInterval is replaced by an unknown word
+    @Param({"4", "1000"})
+    public int unknownWordInterval;
+
+    private Tagger tagger;
+    private String[][] sentences;
+    private int next;
+
+    @Setup
+    public void setUp(){
+        tagger = Fixtures.trainedTagger();
+        if (!tagger.setVectorized(vectorized))
+            throw new IllegalStateException("The vectorized max-plus is not available");
+
+        List<String> words = Fixtures.devtWords();
+        sentences = new String[NUM_OF_SENTENCES][];
+        for (int i = 0; i < NUM_OF_SENTENCES; i++) {
+            sentences[i] = Fixtures.sentence(words, i * SENTENCE_LENGTH, SENTENCE_LENGTH);
+            for (int t = i % unknownWordInterval; t < SENTENCE_LENGTH; t += unknownWordInterval)
+                sentences[i][t] = "<unknown>";
+        }
+    }
+
+    // Per sentence of SENTENCE_LENGTH words
+    @Benchmark
+    public int[] viberti(){
+        next = (next + 1) % NUM_OF_SENTENCES;
+        return tagger.viberti(sentences[next]);
+    }
+}
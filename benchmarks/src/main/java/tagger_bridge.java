@@ -0,0 +1,84 @@
+import postagger.benchmarks.Tagger;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Implementation of the benchmark operations with the tagger classes.
+ */
+public class tagger_bridge implements Tagger {
+
+    private pos_model model;
+    private compiled_model compiledModel;
+
+    @Override
+    public void train(File trainingFile){
+        String path = trainingFile.getPath();
+        build_tagger.initialize(new String[]{path, path, path});
+        build_tagger.trainModelParameters();
+    }
+
+    @Override
+    public void createModel(){
+        build_tagger.createHMMModel();
+        model = build_tagger.getModel();
+        model.laplaceSmoothingWithUnknownWordTagForObservations("<UNK>", 0.01);
+        compiledModel = model.compile();
+    }
+
+    @Override
+    public void saveModel(File binaryModelFile, File serializedModelFile) throws IOException {
+        binary_model.save(compiledModel, binaryModelFile);
+
+        ObjectOutputStream out = new ObjectOutputStream(new FileOutputStream(serializedModelFile));
+        try {
+            out.writeObject(model);
+        } finally {
+            out.close();
+        }
+    }
+
+    @Override
+    public Object loadModel(File binaryModelFile) throws IOException {
+        return binary_model.load(binaryModelFile);
+    }
+    @Override
+    public Object loadSerializedModel(File serializedModelFile) throws IOException {
+        try {
+            return run_tagger.loadSerializedHMMModel(serializedModelFile).compile();
+        } catch (ClassNotFoundException e) {
+            throw new IOException(e);
+        }
+    }
+
+    @Override
+    public List<String> taggedWords(String line){
+        List<String> words = new ArrayList<>();
+        for(String token : token_normalizer.split(line)) {
+            int separator = token_normalizer.tagSeparator(token);
+            if(separator != -1)
+                words.add(token_normalizer.taggedWord(token, separator));
+        }
+        return words;
+    }
+
+    @Override
+    public int[] viberti(String[] words){
+        return compiledModel.viberti(words);
+    }
+    @Override
+    public boolean setVectorized(boolean vectorized){
+        compiledModel.setVectorized(vectorized);
+        return compiledModel.isVectorized() == vectorized;
+    }
+
+    @Override
+    public double getEmissionProb(String word, String tag){
+        return model.getEmissionProb(word, tag);
+    }
+    @Override
+    public double getTransitionProb(String prev, String curr){
+        return model.getTransitionProb(prev, curr);
+    }
+}
@@ -0,0 +1,62 @@
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorShape;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * Max-plus kernel using the Java Vector API, at the preferred vector size of the CPU (4 doubles with AVX2, 8 with AVX-512).
+ * The tags are processed a vector at a time: each previous candidate adds its score to a contiguous part of its
+ * transition row, and the lanes which are greater than the maximum take the sum and the index.
+ * The additions and the comparisons are the scalar ones, lane by lane, so the results are exactly the scalar results.
+ */
+public class max_plus_vector extends max_plus {
+
+    private static final VectorSpecies<Double> SPECIES = DoubleVector.SPECIES_PREFERRED;
+    // Indices of the maximums, with as many lanes as SPECIES
+    private static final VectorSpecies<Integer> INDEX_SPECIES =
+            VectorSpecies.of(int.class, VectorShape.forBitSize(SPECIES.vectorBitSize() / 2));
+
+    @Override
+    public String getName(){
+        return "vector (" + SPECIES.length() + " x double)";
+    }
+
+    @Override
+    public void maxPlus(double[] scores, int scoreOffset, int[] rows, int rowOffset, int length,
+                        double[][] weights, int width, double[] maxScores, int[] maxIndices){
+        final int upperBound = SPECIES.loopBound(width);
+        final double[] firstRow = weights[rows[rowOffset]];
+        final double firstScore = scores[scoreOffset];
+
+        int s = 0;
+        for(; s < upperBound; s += SPECIES.length()) {
+            DoubleVector max = DoubleVector.fromArray(SPECIES, firstRow, s).add(firstScore);
+            IntVector index = IntVector.zero(INDEX_SPECIES);
+            for(int i = 1; i < length; i++) {
+                DoubleVector sum = DoubleVector.fromArray(SPECIES, weights[rows[rowOffset + i]], s).add(scores[scoreOffset + i]);
+                VectorMask<Double> greater = sum.compare(VectorOperators.GT, max);
+                max = max.blend(sum, greater);
+                index = index.blend(i, greater.cast(INDEX_SPECIES));
+            }
+            max.intoArray(maxScores, s);
+            index.intoArray(maxIndices, s);
+        }
+
+        // the remaining tags
+        for(; s < width; s++) {
+            double maxScore = firstScore + firstRow[s];
+            int maxIndex = 0;
+            for(int i = 1; i < length; i++) {
+                double sum = scores[scoreOffset + i] + weights[rows[rowOffset + i]][s];
+                if(sum > maxScore) {
+                    maxScore = sum;
+                    maxIndex = i;
+                }
+            }
+            maxScores[s] = maxScore;
+            maxIndices[s] = maxIndex;
+        }
+    }
+}
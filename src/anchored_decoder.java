@@ -0,0 +1,173 @@
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Anchored decoding of a compiled_model, with the same tags as its bigram decoding.
+ * A known word with a single candidate tag is an anchor: it fixes the state of every path, so a sentence is decoded
+ * as the independent spans of ambiguous words between the anchors, in parallel on the executor if there is one.
+ *
+ * The tag dictionary already gives an anchor a single state, so the spans save no work on their own,
+ * this is only meant for a very long line on several cores. It is kept out of compiled_model, which does not use it.
+ */
+public class anchored_decoder {
+
+    // Each decoding thread reuses its own lattice
+    private static final ThreadLocal<viberti_workspace> workspaces = new ThreadLocal<viberti_workspace>() {
+        @Override
+        protected viberti_workspace initialValue() {
+            return new viberti_workspace();
+        }
+    };
+
+    // Consecutive spans of at least ANCHOR_TASK_MIN_WORDS words are decoded by a task
+    private static final int ANCHOR_TASK_MIN_WORDS = 128;
+
+    private final compiled_model model;
+    private final int numOfTags;
+    private final double[][] logTransitions;
+    private final int[] candidateOffsets;
+    private final int[] candidateTags;
+    private final ExecutorService executor;
+
+    // The spans are decoded in parallel by the executor if it is not null,
+    // so it must not be the executor of the threads which call the decoding
+    public anchored_decoder(compiled_model model, ExecutorService executor){
+        this.model = model;
+        this.numOfTags = model.getNumOfTags();
+        this.logTransitions = model.getLogTransitions();
+        this.candidateOffsets = model.getCandidateOffsets();
+        this.candidateTags = model.getCandidateTags();
+        this.executor = executor;
+    }
+
+    // === Anchors ===
+    // A word is an anchor if it is only observed with a single tag in the training data
+    public boolean isAnchor(int wordId){
+        return wordId != model.getVocabulary().size() && model.getNumOfCandidates(wordId) == 1;
+    }
+    public int getNumOfAnchors(){
+        int numOfAnchors = 0;
+        for(int w = 0; w < model.getVocabulary().size(); w++)
+            if(isAnchor(w)) numOfAnchors++;
+        return numOfAnchors;
+    }
+
+    // === Calculate the best path over the spans between the anchors ===
+    // Every path goes through the single candidate of an anchor, so the best path is the best path of each span
+    // of ambiguous words from the tag of the anchor before it, or the start tag, to the tag of the anchor after it,
+    // or the end tag. The scores of a span start from 0 instead of the score of its anchor. If an anchor is reached
+    // with a score which is not finite, the paths after it are not independent of it, and the whole sentence is decoded.
+    public int[] viberti(final int[] wordIds, final int length){
+        if(length == 0)
+            return new int[0];
+        final viberti_workspace workspace = workspaces.get();
+
+        // spans [spanStarts[k], spanEnds[k]) of the ambiguous words, an anchor can be followed by an empty span
+        int numOfSpans = 0;
+        final int[] spanStarts = new int[length + 1];
+        final int[] spanEnds = new int[length + 1];
+        for(int t = 0, start = 0; t <= length; t++)
+            if(t == length || isAnchor(wordIds[t])) {
+                spanStarts[numOfSpans] = start;
+                spanEnds[numOfSpans++] = t;
+                start = t + 1;
+            }
+        if(numOfSpans == 1)
+            return model.viberti(wordIds, length, workspace);
+
+        // the spans are decoded by tasks of consecutive spans
+        final int[] tags = new int[length];
+        final double[] anchorScores = new double[numOfSpans];
+        if(executor == null)
+            decodeSpans(wordIds, length, spanStarts, spanEnds, 0, numOfSpans, tags, anchorScores, workspace);
+        else {
+            // the first task is decoded by the current thread
+            int firstTaskEnd = 0;
+            List<Future<?>> tasks = new ArrayList<>();
+            for(int k = 0; k < numOfSpans; ) {
+                final int from = k;
+                int numOfWords = 0;
+                while(k < numOfSpans && numOfWords < ANCHOR_TASK_MIN_WORDS)
+                    numOfWords += spanEnds[k] - spanStarts[k++] + 1;
+                final int to = k;
+                if(from == 0)
+                    firstTaskEnd = to;
+                else
+                    tasks.add(executor.submit(new Runnable() {
+                        @Override
+                        public void run() {
+                            decodeSpans(wordIds, length, spanStarts, spanEnds, from, to, tags, anchorScores, workspaces.get());
+                        }
+                    }));
+            }
+            decodeSpans(wordIds, length, spanStarts, spanEnds, 0, firstTaskEnd, tags, anchorScores, workspace);
+            try {
+                for(Future<?> task : tasks)
+                    task.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Anchored decoding is interrupted.", e);
+            } catch (ExecutionException e) {
+                throw new IllegalStateException("Anchored decoding has failed.", e.getCause());
+            }
+        }
+
+        // the anchors, the last span ends with the end tag
+        for(int k = 0; k < numOfSpans - 1; k++) {
+            if(!Double.isFinite(anchorScores[k]))
+                return model.viberti(wordIds, length, workspace);
+            tags[spanEnds[k]] = candidateTags[candidateOffsets[wordIds[spanEnds[k]]]];
+        }
+        return tags;
+    }
+    // Decodes the spans [from, to), the score of the best path of each span into its anchor is kept in anchorScores
+    private void decodeSpans(int[] wordIds, int length, int[] spanStarts, int[] spanEnds, int from, int to,
+                             int[] tags, double[] anchorScores, viberti_workspace workspace){
+        final int N = numOfTags;
+        for(int k = from; k < to; k++) {
+            final int start = spanStarts[k], end = spanEnds[k];
+            final int prev = (start == 0) ? N : candidateTags[candidateOffsets[wordIds[start - 1]]];
+            final int next = (end == length) ? N : candidateTags[candidateOffsets[wordIds[end]]];
+            anchorScores[k] = (start == end) ? logTransitions[prev][next] :
+                    spanViberti(wordIds, start, end, prev, next, tags, workspace);
+        }
+    }
+    // Decodes the words [start, end) from the tag prev to the tag next into tags,
+    // returns the score of the best path followed by the tag next
+    private double spanViberti(int[] wordIds, int start, int end, int prev, int next, int[] tags, viberti_workspace workspace){
+        final int N = numOfTags;
+        final int T = end - start;
+
+        workspace.ensureCapacity(N, T);
+        final double[] viberti = workspace.viberti;
+        final int[] backPointer = workspace.backPointer;
+        final int[] offsets = workspace.offsets;
+        final int[] lengths = workspace.lengths;
+        for(int t = 0; t < T; t++) {
+            int w = wordIds[start + t];
+            offsets[t] = candidateOffsets[w];
+            lengths[t] = candidateOffsets[w + 1] - candidateOffsets[w];
+        }
+
+        // initialization step from the tag prev
+        final int first = wordIds[start];
+        for(int j = 0; j < lengths[0]; j++)
+            viberti[j] = logTransitions[prev][candidateTags[offsets[0] + j]] + model.getCandidateLogEmission(first, j);
+
+        // recursion step
+        for(int t = 1; t < T; t++)
+            model.vibertiStep(viberti, backPointer, (t - 1) * N, offsets[t - 1], lengths[t - 1], t * N, offsets[t], lengths[t], workspace);
+
+        // termination step into the tag next
+        int j = model.bestCandidateBefore(viberti, (T - 1) * N, offsets[T - 1], lengths[T - 1], next);
+        double score = viberti[(T - 1) * N + j] + logTransitions[candidateTags[offsets[T - 1] + j]][next];
+
+        // backtracing the path
+        for(int t = T - 1; ; t--) {
+            tags[start + t] = candidateTags[offsets[t] + j];
+            if(t == 0) break;
+            j = backPointer[t * N + j];
+        }
+        return score;
+    }
+}
@@ -0,0 +1,351 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+/**
+ * Binary model file of a compiled_model.
+ *
+ * The file is a header followed by flat sections, all values are big-endian:
+ *   header          magic, version, the precision of the log-probabilities in bits (version 4),
+ *                   and the order of the HMM the model is decoded with by default (version 6)
+ *   tags            string table of the N tags
+ *   transitions     (N + 1) x (N + 1) log-probabilities, row by row
+ *   emissions       N emission denominators
+ *   vocabulary      string table of the V words and the hash table of the vocabulary
+ *   tag dictionary  V + 2 candidate offsets, candidate tags and their log-probabilities
+ *   trigrams        flag of the trigram transitions and (N + 1)^3 log-probabilities if it is set (version 2)
+ *   counts          flag of the training counts and the counts if it is set (version 3): the start, end and
+ *                   unknown word tags, the interpolation parameters, the flag of the unigram term of the transitions
+ *                   (version 5), the number of tokens, the tag counts,
+ *                   and the transition, observation and trigram transition count tables
+ * A count table is the string table of its row keys, then the string table of the column keys and the counts of each row.
+ * A string table is the number of strings, the UTF-8 length of each string and the UTF-8 bytes.
+ * The log-probabilities of the candidates and the trigrams of a quantized model are packed tables: the number of values,
+ * then the floats, or the number of scales, the scales and the 16-bit codes. The transitions are always doubles.
+ *
+ * The loader maps the file into memory and copies the sections into the arrays of the
+ * compiled model, so nothing is rehashed or deserialized object by object.
+ * The counts are only read back into a pos_model when the model is updated with new training data.
+ */
+public class binary_model {
+
+    // "HMMP"
+    private static final int MAGIC = 0x484D4D50;
+    private static final int VERSION = 6;
+
+    // === Check whether a file is a binary model file ===
+    public static boolean isBinaryModel(File file) throws IOException {
+        DataInputStream in = new DataInputStream(new FileInputStream(file));
+        try {
+            return file.length() >= 4 && in.readInt() == MAGIC;
+        } finally {
+            in.close();
+        }
+    }
+
+    // === Save a model ===
+    // A pos_model is saved with its counts, so that it can be updated later
+    public static void save(pos_model model, File file) throws IOException {
+        save(model.compile(), model, model.getOrder(), file);
+    }
+    // The compiled model is quantized in the precision, quantized_table.FLOAT or FIXED16, unless it is FULL
+    public static void save(pos_model model, int precision, File file) throws IOException {
+        compiled_model compiledModel = model.compile();
+        save((precision == quantized_table.FULL) ? compiledModel : compiledModel.quantize(precision), model, model.getOrder(), file);
+    }
+    public static void save(compiled_model model, File file) throws IOException {
+        save(model, null, model.getOrder(), file);
+    }
+    private static void save(compiled_model model, pos_model counts, int order, File file) throws IOException {
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1 << 16));
+        try {
+            final vocabulary vocabulary = model.getVocabulary();
+
+            // header
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(model.getPrecision());
+            out.writeInt(order);
+
+            // tags
+            writeStringTable(out, model.getTagSpaceList());
+
+            // transitions
+            for(double[] row : model.getLogTransitions())
+                writeDoubles(out, row);
+
+            // emissions
+            writeDoubles(out, model.getEmissionDenominators());
+
+            // vocabulary
+            List<String> words = new ArrayList<>(vocabulary.size());
+            for(int w = 0; w < vocabulary.size(); w++)
+                words.add(vocabulary.getWord(w));
+            writeStringTable(out, words);
+            writeInts(out, vocabulary.getSlots());
+
+            // tag dictionary
+            writeInts(out, model.getCandidateOffsets());
+            writeInts(out, model.getCandidateTags());
+            if(model.isQuantized())
+                writePackedTable(out, model.getPackedLogEmissions());
+            else {
+                out.writeInt(model.getCandidateLogEmissions().length);
+                writeDoubles(out, model.getCandidateLogEmissions());
+            }
+
+            // trigrams
+            out.writeBoolean(model.hasTrigramTransitions());
+            if(model.hasTrigramTransitions() && model.isQuantized())
+                writePackedTable(out, model.getPackedLogTrigramTransitions());
+            else if(model.hasTrigramTransitions())
+                writeDoubles(out, model.getLogTrigramTransitions());
+
+            // counts
+            out.writeBoolean(counts != null);
+            if(counts != null)
+                writeCounts(out, counts);
+        } finally {
+            out.close();
+        }
+    }
+
+    // === Load a compiled model ===
+    public static compiled_model load(File file) throws IOException {
+        FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        try {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            return readCompiledModel(buffer, readVersion(buffer, file));
+        } finally {
+            channel.close();
+        }
+    }
+    // === Read the precision of the log-probabilities in bits, quantized_table.FULL for the files before version 4 ===
+    public static int readPrecision(File file) throws IOException {
+        FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        try {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            return (readVersion(buffer, file) >= 4) ? buffer.getInt() : quantized_table.FULL;
+        } finally {
+            channel.close();
+        }
+    }
+    // === Load a model with its counts ===
+    public static pos_model loadModel(File file) throws IOException {
+        FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        try {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            int version = readVersion(buffer, file);
+            compiled_model compiledModel = readCompiledModel(buffer, version);
+
+            if(version < 3 || buffer.get() == 0)
+                throw new IOException("'" + file + "' does not contain the training counts.");
+            pos_model model = readCounts(buffer, compiledModel.getTagSpaceList(), version);
+            model.setOrder(compiledModel.getOrder());
+            return model;
+        } finally {
+            channel.close();
+        }
+    }
+    private static int readVersion(ByteBuffer buffer, File file) throws IOException {
+        if(buffer.remaining() < 8 || buffer.getInt() != MAGIC)
+            throw new IOException("'" + file + "' is not a binary model file.");
+        int version = buffer.getInt();
+        if(version < 1 || version > VERSION)
+            throw new IOException("'" + file + "' has an unsupported model file version " + version + ".");
+        return version;
+    }
+    private static compiled_model readCompiledModel(ByteBuffer buffer, int version) throws IOException {
+        // precision, the files before version 4 are not quantized
+        final int precision = (version >= 4) ? buffer.getInt() : quantized_table.FULL;
+        if(precision != quantized_table.FULL && precision != quantized_table.FLOAT && precision != quantized_table.FIXED16)
+            throw new IOException("Model file has an unsupported precision of " + precision + " bits.");
+        // order of the HMM, the files before version 6 are decoded with the bigrams
+        final int order = (version >= 6) ? buffer.getInt() : 2;
+        if(order != 2 && order != 3)
+            throw new IOException("Model file has an unsupported HMM order of " + order + ".");
+
+        // tags
+        List<String> tagSpaceList = Arrays.asList(readStringTable(buffer));
+        final int N = tagSpaceList.size();
+
+        // transitions
+        double[][] logTransitions = new double[N + 1][];
+        for(int i = 0; i <= N; i++)
+            logTransitions[i] = readDoubles(buffer, N + 1);
+
+        // emissions
+        double[] emissionDenominators = readDoubles(buffer, N);
+
+        // vocabulary
+        String[] words = readStringTable(buffer);
+        vocabulary vocabulary = new vocabulary(readInts(buffer, buffer.getInt()), words);
+
+        // tag dictionary
+        int[] candidateOffsets = readInts(buffer, buffer.getInt());
+        int[] candidateTags = readInts(buffer, buffer.getInt());
+        if(precision != quantized_table.FULL) {
+            quantized_table packedLogEmissions = readPackedTable(buffer, precision);
+            quantized_table packedLogTrigramTransitions = (buffer.get() != 0) ? readPackedTable(buffer, precision) : null;
+            compiled_model model = new compiled_model(tagSpaceList, logTransitions, packedLogTrigramTransitions, emissionDenominators,
+                    vocabulary, candidateOffsets, candidateTags, packedLogEmissions);
+            model.setOrder(order);
+            return model;
+        }
+        double[] candidateLogEmissions = readDoubles(buffer, buffer.getInt());
+
+        // trigrams, the files of version 1 have none
+        double[] logTrigramTransitions = null;
+        if(version >= 2 && buffer.get() != 0)
+            logTrigramTransitions = readDoubles(buffer, (N + 1) * (N + 1) * (N + 1));
+
+        compiled_model model = new compiled_model(tagSpaceList, logTransitions, logTrigramTransitions, emissionDenominators,
+                vocabulary, candidateOffsets, candidateTags, candidateLogEmissions);
+        model.setOrder(order);
+        return model;
+    }
+    // The number of the values, then the floats, or the number of the scales, the scales and the codes
+    private static void writePackedTable(DataOutputStream out, quantized_table table) throws IOException {
+        out.writeInt(table.size());
+        if(table.getPrecision() == quantized_table.FLOAT) {
+            for(float v : table.getFloats())
+                out.writeFloat(v);
+        } else {
+            out.writeInt(table.getScales().length);
+            writeDoubles(out, table.getScales());
+            for(short code : table.getCodes())
+                out.writeShort(code);
+        }
+    }
+    private static quantized_table readPackedTable(ByteBuffer buffer, int precision){
+        final int size = buffer.getInt();
+        if(precision == quantized_table.FLOAT) {
+            float[] floats = new float[size];
+            buffer.asFloatBuffer().get(floats);
+            buffer.position(buffer.position() + 4 * size);
+            return new quantized_table(floats);
+        }
+        double[] scales = readDoubles(buffer, buffer.getInt());
+        short[] codes = new short[size];
+        buffer.asShortBuffer().get(codes);
+        buffer.position(buffer.position() + 2 * size);
+        return new quantized_table(codes, scales);
+    }
+
+    // === Counts ===
+    private static void writeCounts(DataOutputStream out, pos_model model) throws IOException {
+        writeStringTable(out, Arrays.asList(model.getStartTag(), model.getEndTag(), model.getUnkWordTag()));
+        writeDoubles(out, model.getInterpolationParameters());
+        out.writeBoolean(model.hasUnigramTermForTransitions());
+        out.writeInt(model.getTotalNumOfTokens());
+
+        List<String> tags = new ArrayList<>(model.getSingletonCounts().keySet());
+        writeStringTable(out, tags);
+        for(String tag : tags)
+            out.writeInt(model.getSingletonCounts().get(tag));
+
+        writeCountTable(out, model.getTransitions());
+        writeCountTable(out, model.getObservations());
+        out.writeBoolean(model.getTrigramTransitions() != null);
+        if(model.getTrigramTransitions() != null)
+            writeCountTable(out, model.getTrigramTransitions());
+    }
+    private static pos_model readCounts(ByteBuffer buffer, List<String> tagSpaceList, int version){
+        String[] specialTags = readStringTable(buffer);
+        double[] parameters = readDoubles(buffer, 5);
+        // the files before version 5 leave the unigram term out
+        boolean unigramTransitions = version >= 5 && buffer.get() != 0;
+        int totalNumOfTokens = buffer.getInt();
+
+        Map<String, Integer> singletonCounts = new HashMap<>();
+        String[] tags = readStringTable(buffer);
+        for(String tag : tags)
+            singletonCounts.put(tag, buffer.getInt());
+
+        Map<String, HashMap<String, Double>> transitions = readCountTable(buffer);
+        Map<String, HashMap<String, Double>> observations = readCountTable(buffer);
+        Map<String, HashMap<String, Double>> trigramTransitions = (buffer.get() != 0) ? readCountTable(buffer) : null;
+
+        pos_model model = new pos_model(new HashSet<>(tagSpaceList), new ArrayList<>(tagSpaceList),
+                specialTags[0], specialTags[1], specialTags[2],
+                transitions, observations, trigramTransitions,
+                singletonCounts, totalNumOfTokens,
+                parameters[0], parameters[1]);
+        model.interpolationSmoothingForTrigramTransitions(parameters[2], parameters[3], parameters[4]);
+        model.unigramTermForTransitions(unigramTransitions);
+        return model;
+    }
+    private static void writeCountTable(DataOutputStream out, Map<String, HashMap<String, Double>> table) throws IOException {
+        List<String> rows = new ArrayList<>(table.keySet());
+        writeStringTable(out, rows);
+        for(String row : rows) {
+            List<String> columns = new ArrayList<>(table.get(row).keySet());
+            writeStringTable(out, columns);
+            for(String column : columns)
+                out.writeDouble(table.get(row).get(column));
+        }
+    }
+    private static Map<String, HashMap<String, Double>> readCountTable(ByteBuffer buffer){
+        Map<String, HashMap<String, Double>> table = new HashMap<>();
+        for(String row : readStringTable(buffer)) {
+            String[] columns = readStringTable(buffer);
+            double[] counts = readDoubles(buffer, columns.length);
+
+            HashMap<String, Double> tagState = new HashMap<>();
+            for(int i = 0; i < columns.length; i++)
+                tagState.put(columns[i], counts[i]);
+            table.put(row, tagState);
+        }
+        return table;
+    }
+
+    // === Auxiliary functions ===
+    private static void writeStringTable(DataOutputStream out, List<String> strings) throws IOException {
+        byte[][] bytes = new byte[strings.size()][];
+        out.writeInt(strings.size());
+        for(int i = 0; i < bytes.length; i++) {
+            bytes[i] = strings.get(i).getBytes(StandardCharsets.UTF_8);
+            out.writeInt(bytes[i].length);
+        }
+        for(byte[] b : bytes)
+            out.write(b);
+    }
+    private static String[] readStringTable(ByteBuffer buffer){
+        String[] strings = new String[buffer.getInt()];
+        int[] lengths = readInts(buffer, strings.length);
+
+        byte[] b = new byte[256];
+        for(int i = 0; i < strings.length; i++) {
+            if(b.length < lengths[i]) b = new byte[Math.max(lengths[i], 2 * b.length)];
+            buffer.get(b, 0, lengths[i]);
+            strings[i] = new String(b, 0, lengths[i], StandardCharsets.UTF_8);
+        }
+        return strings;
+    }
+    // A section of fixed length is written without its length
+    private static void writeDoubles(DataOutputStream out, double[] values) throws IOException {
+        for(double v : values)
+            out.writeDouble(v);
+    }
+    private static void writeInts(DataOutputStream out, int[] values) throws IOException {
+        out.writeInt(values.length);
+        for(int v : values)
+            out.writeInt(v);
+    }
+    private static double[] readDoubles(ByteBuffer buffer, int length){
+        double[] values = new double[length];
+        buffer.asDoubleBuffer().get(values);
+        buffer.position(buffer.position() + 8 * length);
+        return values;
+    }
+    private static int[] readInts(ByteBuffer buffer, int length){
+        int[] values = new int[length];
+        buffer.asIntBuffer().get(values);
+        buffer.position(buffer.position() + 4 * length);
+        return values;
+    }
+}
@@ -1,6 +1,13 @@
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
 import java.text.DecimalFormat;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Ahmet Alparslan Celik
@@ -8,12 +15,49 @@ import java.util.*;
  */
 public class build_tagger {
 
-    // Some tuning parameters
-    private static final boolean USE_LOWER_CASE_LETTERS = true;
-
     // Files
     private static File trainingFile, validationFile, modelFile;
 
+    // Optional reports
+    private static final String BEAM_REPORT_OPTION = "--beam-report";
+    private static final int[] BEAM_WIDTHS = {1, 2, 3, 5, 8};
+    // the decodings of the beam report are warmed up, then their tokens/sec are the median of the timed passes
+    // a pass over a development set is only a few milliseconds, so it takes this many passes to be stable
+    private static final int BEAM_REPORT_WARMUP_PASSES = 20;
+    private static final int BEAM_REPORT_PASSES = 60;
+    private static boolean beamReport;
+    private static final String ANCHOR_REPORT_OPTION = "--anchor-report";
+    private static boolean anchorReport;
+
+    // Search of the smoothing parameters on the development set, instead of the fixed unknown word count
+    private static final String TUNE_OPTION = "--tune";
+    private static final double UNKNOWN_WORD_COUNT = 0.01;
+    private static boolean tune;
+    private static double unknownWordCount = UNKNOWN_WORD_COUNT;
+
+    // Cross-validation on the training data, the fold i is the lines in [foldOffsets[i], foldOffsets[i + 1]) of the training file
+    // the model of a fold is trained on the counts of the training data minus the counts of the fold
+    private static final String CROSS_VALIDATION_OPTION = "--cv=";
+    private static int numOfFolds;
+    private static long[] foldOffsets;
+    private static training_counts trainingCounts;
+    private static training_counts[] foldCounts;
+
+    // Quantized model file, the log-probabilities are packed as floats or 16-bit fixed point values
+    // the quantized models are compared with the full precision model on the development set
+    private static final String QUANTIZE_OPTION = "--quantize=";
+    private static int precision = quantized_table.FULL;
+
+    // Parallel training
+    // the training file is split into one shard per thread, but a shard is at least 1MB
+    private static final int NUM_OF_THREADS = Runtime.getRuntime().availableProcessors();
+    private static final long MIN_SHARD_SIZE = 1 << 20;
+
+    // Parallel validation
+    // workers take batches of development sentences, and the progress is reported at most once in a second
+    private static final int VALIDATION_BATCH_SIZE = 16;
+    private static final long PROGRESS_REPORT_INTERVAL = TimeUnit.SECONDS.toNanos(1);
+
     // Tag space
     private static final String startTag = "<s>";
     private static final String endTag = "<end>";
@@ -29,18 +73,18 @@ public class build_tagger {
     // HMM parameters for training
     private static Map<String, HashMap<String, Double>> transitions;
     private static Map<String, HashMap<String, Double>> observations;
+    private static Map<String, HashMap<String, Double>> trigramTransitions;
     private static Map<String, Integer> singetonTagCountForTrainingData;
     private static int totalNumOfTokensInTrainingData;
 
     // Interpolation
-    private static Map<String, Integer> singetonTagCountForDevData;
-    private static Map<String, Integer> bigramTagCount;
+    // lambda1 and lambda2 for the bigram, mu1, mu2 and mu3 for the trigram transitions
     private static double lambda1, lambda2;
+    private static double mu1, mu2, mu3;
 
-    // Statistics
-    private static Map<String, HashMap<String, Integer>> contingencyCount;
-    private static int totalNumOfPredictions;
-    private static int totalNumOfMisclassifications;
+    // Statistics and the counts for the interpolation
+    // collected from the development set by all the validation runs
+    private static validation_counts validationCounts;
 
 
     public static void main(String[] args){
@@ -56,7 +100,7 @@ public class build_tagger {
         println("Model is created!");
 
         // Initial smoothing for unknown words
-        model.laplaceSmoothingWithUnknownWordTagForObservations(tagForUnknownWords, 0.01);
+        model.laplaceSmoothingWithUnknownWordTagForObservations(tagForUnknownWords, unknownWordCount);
 
         // Validate the model
         validateModel();
@@ -68,6 +112,16 @@ public class build_tagger {
         println("Necessary parameters are updated for the bigram smoothing!\n" +
                 "lambda1 = " + lambda1 + " & lambda2 = " + lambda2);
 
+        // Smoothing for trigram tag values
+        trigramDeletedInterpolation();
+        model.interpolationSmoothingForTrigramTransitions(mu1, mu2, mu3);
+        println("Necessary parameters are updated for the trigram smoothing!\n" +
+                "mu1 = " + mu1 + " & mu2 = " + mu2 + " & mu3 = " + mu3);
+
+        // Search the smoothing parameters around the interpolation parameters
+        if(tune)
+            tuneSmoothing();
+
         // Save HMM model
         saveHMMModel();
         println("Model is saved!");
@@ -78,6 +132,22 @@ public class build_tagger {
 
         // Print the statistics
         printStatistics();
+
+        // Compare the quantized models with the full precision model
+        if(precision != quantized_table.FULL)
+            printQuantizationReport();
+
+        // Compare the beam search with the exact search
+        if(beamReport)
+            printBeamReport();
+
+        // Compare the anchored decoding with the bigram decoding
+        if(anchorReport)
+            printAnchorReport();
+
+        // Cross-validate the smoothed model on the folds of the training data
+        if(numOfFolds > 0)
+            crossValidate();
     }
 
     // == Parameter initialization ==
@@ -85,196 +155,339 @@ public class build_tagger {
         // argument validation
         argumentCheck(args);
 
-        // -- HMM parameter initialization --
-        transitions = new HashMap<>();
-        observations = new HashMap<>();
-        singetonTagCountForTrainingData = new HashMap<>();
-
-        // -- initialize transition counts --
-        for(String tag1 : tagSpace) {
-            singetonTagCountForTrainingData.put(tag1, 0);
-            transitions.put(tag1, new HashMap<>());
-            for (String tag2 : tagSpace)
-                transitions.get(tag1).put(tag2, 0.0);
-            transitions.get(tag1).put(endTag, 0.0);
-        }
-        // adding start tag in the transition counts table
-        transitions.put(startTag, new HashMap<>());
-        for (String tag2 : tagSpace)
-            transitions.get(startTag).put(tag2, 0.0);
-
-        // -- initialize observation count --
-        for(String tag : tagSpace)
-            observations.put(tag, new HashMap<>());
+        // -- HMM parameters are initialized by the training --
 
         // -- initialize interpolation parameters --
         lambda1 = 0.0;
         lambda2 = 0.0;
-        singetonTagCountForDevData = new HashMap<>();
-        bigramTagCount = new HashMap<>();
-        for(String tag : tagSpace)
-            singetonTagCountForDevData.put(tag, 0);
+        mu1 = 0.0;
+        mu2 = 0.0;
+        mu3 = 0.0;
 
         // -- initialize contingency table/confusion matrix --
         // this part is for the validation/development set
-        contingencyCount = new HashMap<>();
-
-        for(String tag1 : tagSpace){
-            contingencyCount.put(tag1, new HashMap<>());
-            for(String tag2 : tagSpace)
-                contingencyCount.get(tag1).put(tag2, 0);
-        }
-        totalNumOfPredictions = 0;
-        totalNumOfMisclassifications = 0;
+        validationCounts = new validation_counts(tagSpace);
     }
     public static void argumentCheck(String[] args){
-        if(args.length != 3) {
-            System.err.println("usage: java build_tagger <sents.train> <sents.devt> <model_file>");
-            System.exit(1);
+        if(args.length < 3)
+            usage();
+        for(int i = 3; i < args.length; i++) {
+            if(args[i].equals(BEAM_REPORT_OPTION)) beamReport = true;
+            else if(args[i].equals(ANCHOR_REPORT_OPTION)) anchorReport = true;
+            else if(args[i].equals(TUNE_OPTION)) tune = true;
+            else if(args[i].startsWith(CROSS_VALIDATION_OPTION)) numOfFolds = parseNumOfFolds(args[i]);
+            else if(args[i].equals(QUANTIZE_OPTION + "float")) precision = quantized_table.FLOAT;
+            else if(args[i].equals(QUANTIZE_OPTION + "fixed16")) precision = quantized_table.FIXED16;
+            else usage();
         }
 
         trainingFile = new File(args[0]);
         validationFile = new File(args[1]);
         modelFile = new File(args[2]);
     }
+    private static void usage(){
+        System.err.println("usage: java build_tagger <sents.train> <sents.devt> <model_file> [" + BEAM_REPORT_OPTION + "] ["
+                + ANCHOR_REPORT_OPTION + "] [" + TUNE_OPTION + "] [" + CROSS_VALIDATION_OPTION + "folds] ["
+                + QUANTIZE_OPTION + "float|fixed16]");
+        System.exit(1);
+    }
+    private static int parseNumOfFolds(String arg){
+        int folds;
+        try {
+            folds = Integer.parseInt(arg.substring(CROSS_VALIDATION_OPTION.length()));
+        } catch (NumberFormatException e) {
+            folds = 0;
+        }
+        if(folds < 2) {
+            System.err.println("'" + arg + "' is not a valid number of folds, it must be at least 2!");
+            System.exit(1);
+        }
+        return folds;
+    }
 
     // == Model parameter training ==
+    // The training file is split into shards at the line boundaries,
+    // each shard is counted by a separate thread and then the counts are merged
+    // With the cross-validation, the file is first split into the folds, whose counts are merged from their own shards
+    // and kept with the merged counts for the fold models, so each sentence is still counted once
     public static void trainModelParameters(){
-        try {
-            BufferedReader r = new BufferedReader(new FileReader(trainingFile));
-            totalNumOfTokensInTrainingData = 0;
-
+        training_counts counts;
+        if(numOfFolds > 0) {
             try {
-                String s;
-                while ((s = r.readLine()) != null) {
-                    String tagPrev = startTag;
-                    for(String t : s.split(" ")) {
-                        int seperator = t.lastIndexOf('/');
-
-                        if(seperator == -1) {
-                            System.err.print("'" + t + "' is not properly tagged!");
-                            continue;
-                        }
-
-                        // separate the word and the POS tag
-                        String[] e = new String[]{t.substring(0, seperator), t.substring(seperator + 1)};
+                foldOffsets = splitIntoShards(trainingFile, 0, trainingFile.length(), numOfFolds);
+            } catch (IOException e) {
+                e.printStackTrace();
+                return;
+            }
+            foldCounts = countTrainingData(trainingFile, foldOffsets);
+            if(foldCounts == null) return;
+
+            counts = new training_counts(tagSpace, startTag, endTag);
+            for(training_counts fold : foldCounts)
+                counts.merge(fold);
+            trainingCounts = counts;
+        } else {
+            counts = countTrainingData(trainingFile);
+            if(counts == null) return;
+        }
 
-                        // convert digits to #
-                        e[0] = e[0].replaceAll("\\d+", "\\#");
-                        // convert word into lowercase
-                        if(USE_LOWER_CASE_LETTERS)
-                            e[0] = e[0].toLowerCase();
+        transitions = counts.getTransitions();
+        observations = counts.getObservations();
+        trigramTransitions = counts.getTrigramTransitions();
+        singetonTagCountForTrainingData = counts.getSingletonTagCount();
+        totalNumOfTokensInTrainingData = counts.getTotalNumOfTokens();
+    }
+    // Returns the merged counts of a POS-tagged file, or null if it can not be counted
+    public static training_counts countTrainingData(File file){
+        training_counts[] counts = countTrainingData(file, new long[]{0, file.length()});
+        return (counts == null) ? null : counts[0];
+    }
+    // Returns the merged counts of each part [parts[i], parts[i + 1]) of a POS-tagged file, or null if it can not be counted
+    // The parts start at the beginning of a line and each of them is split into its own shards
+    private static training_counts[] countTrainingData(final File file, long[] parts){
+        ExecutorService workers = Executors.newFixedThreadPool(NUM_OF_THREADS);
+        try {
+            final int numOfParts = parts.length - 1;
+            final int numOfShardsPerPart = (NUM_OF_THREADS + numOfParts - 1) / numOfParts;
+
+            List<List<Future<training_counts>>> shardCounts = new ArrayList<>();
+            for(int p = 0; p < numOfParts; p++) {
+                long size = parts[p + 1] - parts[p];
+                long[] shards = splitIntoShards(file, parts[p], parts[p + 1],
+                        (int) Math.max(1, Math.min(numOfShardsPerPart, size / MIN_SHARD_SIZE)));
+
+                List<Future<training_counts>> partCounts = new ArrayList<>();
+                for(int i = 0; i + 1 < shards.length; i++) {
+                    final long start = shards[i], end = shards[i + 1];
+                    partCounts.add(workers.submit(new Callable<training_counts>() {
+                        @Override
+                        public training_counts call() throws IOException {
+                            return countShard(file, start, end);
+                        }
+                    }));
+                }
+                shardCounts.add(partCounts);
+            }
 
-                        // increment the current tag's counter
-                        incCount(singetonTagCountForTrainingData, e[1]);
-                        totalNumOfTokensInTrainingData++;
+            training_counts[] counts = new training_counts[numOfParts];
+            for(int p = 0; p < numOfParts; p++) {
+                counts[p] = new training_counts(tagSpace, startTag, endTag);
+                for(Future<training_counts> shard : shardCounts.get(p))
+                    counts[p].merge(shard.get());
+            }
+            return counts;
+        } catch (IOException e) {
+            e.printStackTrace();
+        } catch (ExecutionException e) {
+            e.printStackTrace();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            workers.shutdown();
+        }
+        return null;
+    }
+    // Returns the byte offsets of the shards of [start, end), shard i is [offsets[i], offsets[i + 1])
+    // start must be at the beginning of a line, and each offset except the last one is at the beginning of a line
+    private static long[] splitIntoShards(File file, long start, long end, int numOfShards) throws IOException {
+        final long size = end - start;
 
-                        // insert tuple into the observation table
-                        insertObservation(e[e.length - 1], e[0]);
+        long[] offsets = new long[numOfShards + 1];
+        offsets[0] = start;
+        offsets[numOfShards] = end;
 
-                        // insert tag bigrams into the transition table
-                        insertTransition(tagPrev, e[e.length - 1]);
-                        tagPrev = e[e.length - 1];
+        FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        try {
+            ByteBuffer buffer = ByteBuffer.allocate(8192);
+            for (int i = 1; i < numOfShards; i++) {
+                // move the offset to the beginning of the next line
+                long offset = Math.max(start + i * (size / numOfShards), offsets[i - 1]);
+                if (offset > start) {
+                    long position = offset - 1;
+                    boolean found = false, afterCarriageReturn = false;
+                    while (!found && position < end) {
+                        buffer.clear();
+                        int n = channel.read(buffer, position);
+                        for (int j = 0; j < n && !found; j++, position++) {
+                            byte b = buffer.get(j);
+                            // a line starts after "\n", "\r\n" or a lone "\r"
+                            if (afterCarriageReturn && b != '\n') {
+                                found = true;
+                                break;
+                            }
+                            found = b == '\n';
+                            afterCarriageReturn = b == '\r';
+                        }
                     }
-                    // Add end of the sentences tag into transition table
-                    insertTransition(tagPrev, endTag);
+                    offset = Math.min(position, end);
                 }
-            } finally {
-                r.close();
+                offsets[i] = offset;
             }
-        } catch (IOException e) {
-            e.printStackTrace();
+        } finally {
+            channel.close();
+        }
+        return offsets;
+    }
+    // Counts the sentences of the file in the byte range [start, end)
+    // The shard is read at the byte level, the words are only decoded the first time they are seen
+    private static training_counts countShard(File file, long start, long end) throws IOException {
+        training_counts counts = new training_counts(tagSpace, startTag, endTag);
+
+        corpus_reader r = new corpus_reader(file, start, end);
+        try {
+            byte[] normalized = new byte[256];
+            while (r.nextLine()) {
+                if(normalized.length < r.getLineLength()) normalized = new byte[Math.max(r.getLineLength(), 2 * normalized.length)];
+                countSentence(r, normalized, counts);
+            }
+        } finally {
+            r.close();
+        }
+        return counts;
+    }
+    private static void countSentence(corpus_reader r, byte[] normalized, training_counts counts){
+        final byte[] line = r.getLine();
+        int tagPrev2 = counts.getStartTagId();
+        int tagPrev = counts.getStartTagId();
+        for(int t = 0; t < r.getNumOfTokens(); t++) {
+            int start = r.getTokenStart(t), end = r.getTokenEnd(t);
+            int seperator = r.getTagSeparator(t);
+
+            if(seperator == -1) {
+                System.err.print("'" + new String(line, start, end - start, StandardCharsets.UTF_8) + "' is not properly tagged!");
+                continue;
+            }
+
+            // separate the normalized word and the POS tag
+            int length = token_normalizer.normalize(line, start, seperator - start, normalized);
+            int word = (length == -1)
+                    ? counts.addWord(token_normalizer.normalize(new String(line, start, seperator - start, StandardCharsets.UTF_8)))
+                    : counts.addWord(normalized, 0, length);
+            int tag = counts.getTagId(line, seperator + 1, end - seperator - 1);
+
+            // increment the current tag's counter
+            counts.insertTag(tag);
+
+            // insert tuple into the observation table
+            counts.insertObservation(tag, word);
+
+            // insert tag bigrams into the transition table
+            counts.insertTransition(tagPrev, tag);
+            counts.insertTrigramTransition(tagPrev2, tagPrev, tag);
+            tagPrev2 = tagPrev;
+            tagPrev = tag;
         }
+        // Add end of the sentences tag into transition table, unless no word is counted
+        if(tagPrev == counts.getStartTagId()) return;
+        counts.insertTransition(tagPrev, counts.getEndTagId());
+        counts.insertTrigramTransition(tagPrev2, tagPrev, counts.getEndTagId());
     }
 
     // == Create the HMM model ==
     public static void createHMMModel(){
         model = new pos_model(tagSpace, new ArrayList<String>(tagSpace), startTag, endTag, tagForUnknownWords,
-                            transitions, observations, singetonTagCountForTrainingData, totalNumOfTokensInTrainingData,
+                            transitions, observations, trigramTransitions,
+                            singetonTagCountForTrainingData, totalNumOfTokensInTrainingData,
                 lambda1, lambda2);
     }
 
+    public static pos_model getModel(){
+        return model;
+    }
+
     // == Save the HMM model
+    // The compiled model is saved in the binary model file format, together with the counts for the later updates
+    // the log-probabilities of a quantized model are saved packed
     private static void saveHMMModel() {
         try {
-            FileOutputStream fileStream = new FileOutputStream(modelFile);
-            ObjectOutputStream objectStream = new ObjectOutputStream(fileStream);
-            try {
-                objectStream.writeObject(model);
-            } finally {
-                if (objectStream != null) {
-                    objectStream.close();
-                    fileStream.close();
-                }
-            }
+            binary_model.save(model, precision, modelFile);
         } catch (IOException e) {
             e.printStackTrace();
         }
     }
 
     // == Model validation ==
+    // The development sentences are validated by multiple threads,
+    // each of them keeps its own counts which are merged at the end
     public static void validateModel(){
+        ExecutorService workers = Executors.newFixedThreadPool(NUM_OF_THREADS);
         try {
-            BufferedReader r = new BufferedReader(new FileReader(validationFile));
-            try {
-                println("Development data is being processed...\nIt'll take around 1 min\nLine number being processed now");
-                int lineCtr = 0;
-
-                String s;
-                while ((s = r.readLine()) != null) {
-                    println(++lineCtr);
-
-                    String[] words = s.split(" ");
-                    String[] trueTags = new String[words.length];
-                    String[] predictedTags;
-
-                    for(int i = 0; i < words.length; i++){
-                        int seperator = words[i].lastIndexOf('/');
-
-                        if (seperator == -1) {
-                            System.err.print("'" + words[i] + "' is not properly tagged!");
-                            continue;
+            println("Development data is being processed...");
+            final List<String> lines = readLines(validationFile);
+            final AtomicInteger nextLine = new AtomicInteger(0);
+            final AtomicInteger lineCtr = new AtomicInteger(0);
+            final AtomicLong lastReport = new AtomicLong(System.nanoTime());
+
+            List<Future<validation_counts>> workerCounts = new ArrayList<>();
+            for(int i = 0; i < NUM_OF_THREADS; i++)
+                workerCounts.add(workers.submit(new Callable<validation_counts>() {
+                    @Override
+                    public validation_counts call() {
+                        validation_counts counts = new validation_counts(tagSpace);
+
+                        int start;
+                        while ((start = nextLine.getAndAdd(VALIDATION_BATCH_SIZE)) < lines.size()) {
+                            int end = Math.min(start + VALIDATION_BATCH_SIZE, lines.size());
+                            for (int j = start; j < end; j++)
+                                validateSentence(lines.get(j), counts);
+                            reportProgress(lineCtr.addAndGet(end - start), lines.size(), lastReport);
                         }
+                        return counts;
+                    }
+                }));
 
-                        // separate the word and the POS tag
-                        trueTags[i] = words[i].substring(seperator + 1);
-                        words[i] = words[i].substring(0, seperator);
+            for(Future<validation_counts> counts : workerCounts)
+                validationCounts.merge(counts.get());
+        } catch(IOException e) {
+            e.printStackTrace();
+        } catch(ExecutionException e) {
+            e.printStackTrace();
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            workers.shutdown();
+        }
+    }
+    private static void validateSentence(String s, validation_counts counts){
+        String[][] sentence = parseTaggedSentence(s);
+        String[] words = sentence[0];
+        String[] trueTags = sentence[1];
 
-                        // convert digits to #
-                        words[i] = words[i].replaceAll("\\d+", "\\#");
-                        // convert word into lowercase
-                        if (USE_LOWER_CASE_LETTERS)
-                            words[i] = words[i].toLowerCase();
-                    }
+        // update interpolation parameters
+        counts.insertTrueTags(trueTags);
 
-                    // update interpolation parameters
-                    String prevTag = trueTags[0];
-                    incCount(singetonTagCountForDevData, trueTags[0]);
-                    for(int i = 1; i < trueTags.length; i++){
-                        incCount(bigramTagCount, (prevTag + " " + trueTags[i]));
-                        incCount(singetonTagCountForDevData, trueTags[i]);
-                        prevTag = trueTags[i];
-                    }
+        // get the predicted tags
+        String[] predictedTags = model.viberti(words);
 
-                    // get the predicted tags
-                    predictedTags = model.viberti(words);
+        // update contingency counts
+        counts.insertPredictions(trueTags, predictedTags);
+    }
+    // Separates the normalized words and the tags of a POS-tagged sentence
+    private static String[][] parseTaggedSentence(String s){
+        String[] words = token_normalizer.split(s);
+        String[] trueTags = new String[words.length];
 
-                    // update contingency counts
-                    for(int i = 0; i < trueTags.length; i++){
-                        if(!predictedTags[i].equals(trueTags[i])){
-                            contingencyCount.get(trueTags[i]).
-                                    put(predictedTags[i], contingencyCount.get(trueTags[i]).get(predictedTags[i]) + 1);
-                            totalNumOfMisclassifications++;
-                        }
-                        totalNumOfPredictions++;
-                    }
-                }
-            } finally {
-                r.close();
+        for(int i = 0; i < words.length; i++){
+            int seperator = token_normalizer.tagSeparator(words[i]);
+
+            if (seperator == -1) {
+                System.err.print("'" + words[i] + "' is not properly tagged!");
+                continue;
             }
-        } catch(IOException e) {
-            e.printStackTrace();
+
+            // separate the normalized word and the POS tag
+            trueTags[i] = token_normalizer.tag(words[i], seperator);
+            words[i] = token_normalizer.taggedWord(words[i], seperator);
         }
+
+        return new String[][]{words, trueTags};
+    }
+    // Prints the number of processed lines if the last report is old enough
+    private static void reportProgress(int lineCtr, int numOfLines, AtomicLong lastReport){
+        long now = System.nanoTime();
+        long last = lastReport.get();
+        if((now - last >= PROGRESS_REPORT_INTERVAL && lastReport.compareAndSet(last, now)) || lineCtr == numOfLines)
+            println(lineCtr + "/" + numOfLines + " lines are processed");
     }
 
     // == Interpolation ==
@@ -289,7 +502,10 @@ public class build_tagger {
         // val2 = [C(t_1, t_2) - 1] / [C(t_1) - 1]
         double val1, val2;
 
-        for(Map.Entry<String, Integer> bigram : bigramTagCount.entrySet()){
+        final Map<String, Integer> singetonTagCountForDevData = validationCounts.getSingletonTagCount();
+        final int totalNumOfPredictions = validationCounts.getTotalNumOfPredictions();
+
+        for(Map.Entry<String, Integer> bigram : validationCounts.getBigramTagCount().entrySet()){
             String[] bigramTags = bigram.getKey().split(" ");
 
             // totalNumOfPredictions is equal to total # of tokens
@@ -307,6 +523,191 @@ public class build_tagger {
         lambda2 = lambda2 / lambdaSum;
     }
 
+    // The same algorithm with three-way comparison for the trigram transitions
+    // val1 = [C(t_3) - 1] / [N - 1]
+    // val2 = [C(t_2, t_3) - 1] / [C(t_2) - 1]
+    // val3 = [C(t_1, t_2, t_3) - 1] / [C(t_1, t_2) - 1]
+    public static void trigramDeletedInterpolation(){
+        mu1 = 0;
+        mu2 = 0;
+        mu3 = 0;
+
+        final Map<String, Integer> singetonTagCountForDevData = validationCounts.getSingletonTagCount();
+        final Map<String, Integer> bigramTagCount = validationCounts.getBigramTagCount();
+        final int totalNumOfPredictions = validationCounts.getTotalNumOfPredictions();
+
+        for(Map.Entry<String, Integer> trigram : validationCounts.getTrigramTagCount().entrySet()){
+            String[] trigramTags = trigram.getKey().split(" ");
+            int count23 = bigramTagCount.get(trigramTags[1] + " " + trigramTags[2]);
+            int count12 = bigramTagCount.get(trigramTags[0] + " " + trigramTags[1]);
+            int count2 = singetonTagCountForDevData.get(trigramTags[1]);
+            int count3 = singetonTagCountForDevData.get(trigramTags[2]);
+
+            double val1 = (double)(count3 - 1) / (totalNumOfPredictions - 1);
+            double val2 = (count2 - 1 == 0) ? 0.0 : (double)(count23 - 1) / (count2 - 1);
+            double val3 = (count12 - 1 == 0) ? 0.0 : (double)(trigram.getValue() - 1) / (count12 - 1);
+
+            if(val1 > val2 && val1 > val3) mu1 += trigram.getValue();
+            else if(val2 > val3) mu2 += trigram.getValue();
+            else mu3 += trigram.getValue();
+        }
+
+        // Normalization for the mu values
+        double muSum = mu1 + mu2 + mu3;
+        mu1 = mu1 / muSum;
+        mu2 = mu2 / muSum;
+        mu3 = mu3 / muSum;
+    }
+
+    // == Smoothing parameter search ==
+    // The settings of the grid are compiled from the trained counts and evaluated on the development set in parallel,
+    // then the best one is set in the model and the settings are printed from the best to the worst
+    public static void tuneSmoothing(){
+        try {
+            List<String[][]> sentences = new ArrayList<>();
+            for(String line : readLines(validationFile))
+                sentences.add(parseTaggedSentence(line));
+
+            List<smoothing_search.Setting> grid = smoothing_search.createGrid(unknownWordCount, lambda1, lambda2,
+                    mu1, mu2, mu3, model.hasTrigramTransitions());
+            println("Smoothing parameters are being searched over " + grid.size() + " settings...");
+            List<smoothing_search.Setting> ranked = new smoothing_search(model, sentences, NUM_OF_THREADS).evaluate(grid);
+
+            printSmoothingReport(ranked);
+
+            smoothing_search.Setting best = ranked.get(0);
+            best.apply(model, tagForUnknownWords);
+            unknownWordCount = best.getUnknownWordCount();
+            lambda1 = best.getLambda1();
+            lambda2 = best.getLambda2();
+            mu1 = best.getMu1();
+            mu2 = best.getMu2();
+            mu3 = best.getMu3();
+            println("Necessary parameters are updated for the best setting!\n" +
+                    "unknown word count = " + best.getUnknownWordCount() + " & HMM order = " + best.getOrder());
+            if(best.getOrder() == 3)
+                println("The best setting decodes with the trigram transitions, which run_tagger uses by default for the saved model.");
+        } catch(IOException e) {
+            e.printStackTrace();
+        } catch(ExecutionException e) {
+            e.printStackTrace();
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+    // The settings with the same accuracy share their rank
+    private static void printSmoothingReport(List<smoothing_search.Setting> ranked){
+        println("\nSmoothing parameter report: ");
+        System.out.format("%-6s%-7s%-10s%-9s%-9s%-9s%-9s%-9s%-10s%n",
+                "Rank", "Order", "UNK count", "lambda1", "lambda2", "mu1", "mu2", "mu3", "Accuracy");
+
+        final DecimalFormat parameterFormat = new DecimalFormat("#.####");
+        int rank = 0, numOfBest = 0;
+        for(int i = 0; i < ranked.size(); i++) {
+            smoothing_search.Setting s = ranked.get(i);
+            if(i == 0 || s.getAccuracy() != ranked.get(i - 1).getAccuracy())
+                rank = i + 1;
+            if(rank == 1)
+                numOfBest++;
+            boolean trigram = s.getOrder() == 3;
+            System.out.format("%-6s%-7s%-10s%-9s%-9s%-9s%-9s%-9s%-10s%n", rank, s.getOrder(),
+                    parameterFormat.format(s.getUnknownWordCount()),
+                    trigram ? "-" : parameterFormat.format(s.getLambda1()),
+                    trigram ? "-" : parameterFormat.format(s.getLambda2()),
+                    trigram ? parameterFormat.format(s.getMu1()) : "-",
+                    trigram ? parameterFormat.format(s.getMu2()) : "-",
+                    trigram ? parameterFormat.format(s.getMu3()) : "-",
+                    new DecimalFormat("#.####").format(s.getAccuracy()));
+        }
+        if(numOfBest > 1)
+            println(numOfBest + " settings tie for the best accuracy, the first of them is kept, "
+                    + "the current parameters coming first in the grid.");
+        println("");
+    }
+
+    // == Cross-validation ==
+    // The model of each fold is trained on the counts of all the folds minus the counts of the fold,
+    // with the smoothing parameters of the model, and it is validated on the sentences of the fold.
+    // The folds are validated in parallel, then their accuracies and their merged confusion matrix are printed
+    public static void crossValidate(){
+        if(trainingCounts == null) return;
+
+        ExecutorService workers = Executors.newFixedThreadPool(NUM_OF_THREADS);
+        try {
+            println("\nCross-validation over " + numOfFolds + " folds of the training data...");
+            List<Future<validation_counts>> folds = new ArrayList<>();
+            for(int i = 0; i < numOfFolds; i++) {
+                final int fold = i;
+                folds.add(workers.submit(new Callable<validation_counts>() {
+                    @Override
+                    public validation_counts call() throws IOException {
+                        return validateFold(fold);
+                    }
+                }));
+            }
+
+            validation_counts merged = new validation_counts(tagSpace);
+            double[] accuracies = new double[numOfFolds];
+            System.out.format("%-6s%-10s%-10s%n", "Fold", "Tokens", "Accuracy");
+            for(int fold = 0; fold < numOfFolds; fold++) {
+                validation_counts counts = folds.get(fold).get();
+                final int totalNumOfPredictions = counts.getTotalNumOfPredictions();
+                accuracies[fold] = (double)(totalNumOfPredictions - counts.getTotalNumOfMisclassifications()) / totalNumOfPredictions;
+                System.out.format("%-6s%-10s%-10s%n", fold + 1, totalNumOfPredictions, new DecimalFormat("#.####").format(accuracies[fold]));
+                merged.merge(counts);
+            }
+
+            // the standard deviation of the fold accuracies as a sample
+            double mean = 0, variance = 0;
+            for(double accuracy : accuracies)
+                mean += accuracy / numOfFolds;
+            for(double accuracy : accuracies)
+                variance += (accuracy - mean) * (accuracy - mean) / (numOfFolds - 1);
+
+            println("\nConfusion Matrix of the folds: ");
+            printConfusionMatrix(merged);
+            println("Mean accuracy of the folds: " + mean + " & standard deviation: " + Math.sqrt(variance));
+        } catch(ExecutionException e) {
+            e.printStackTrace();
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            workers.shutdown();
+        }
+    }
+    private static validation_counts validateFold(int fold) throws IOException {
+        training_counts counts = new training_counts(tagSpace, startTag, endTag);
+        counts.merge(trainingCounts);
+        counts.subtract(foldCounts[fold]);
+        // the counts of the fold are only used by its own task
+        foldCounts[fold] = null;
+
+        pos_model foldModel = new pos_model(tagSpace, new ArrayList<String>(tagSpace), startTag, endTag, tagForUnknownWords,
+                counts.getTransitions(), counts.getObservations(), counts.getTrigramTransitions(),
+                counts.getSingletonTagCount(), counts.getTotalNumOfTokens(), lambda1, lambda2);
+        foldModel.laplaceSmoothingWithUnknownWordTagForObservations(tagForUnknownWords, unknownWordCount);
+        foldModel.interpolationSmoothingForTransitions(lambda1, lambda2);
+        foldModel.interpolationSmoothingForTrigramTransitions(mu1, mu2, mu3);
+        foldModel.unigramTermForTransitions(model.hasUnigramTermForTransitions());
+        compiled_model compiledModel = foldModel.compile();
+
+        // only the lines of the fold are read
+        validation_counts validation = new validation_counts(tagSpace);
+        corpus_reader r = new corpus_reader(trainingFile, foldOffsets[fold], foldOffsets[fold + 1]);
+        try {
+            while(r.nextLine()) {
+                if(r.getLineLength() == 0) continue;
+
+                String[][] sentence = parseTaggedSentence(new String(r.getLine(), 0, r.getLineLength(), StandardCharsets.UTF_8));
+                validation.insertTrueTags(sentence[1]);
+                validation.insertPredictions(sentence[1], compiledModel.toTags(compiledModel.viberti(sentence[0])));
+            }
+        } finally {
+            r.close();
+        }
+        return validation;
+    }
+
     // == Statistics ==
     public static void printStatistics(){
         //Print the contingency table
@@ -314,17 +715,220 @@ public class build_tagger {
         printConfusionMatrix();
 
         // Print the accuracy
+        final int totalNumOfPredictions = validationCounts.getTotalNumOfPredictions();
+        final int totalNumOfMisclassifications = validationCounts.getTotalNumOfMisclassifications();
         System.out.println("\nAccuracy of the model: " + ((double)(totalNumOfPredictions - totalNumOfMisclassifications) / totalNumOfPredictions));
     }
+    // Decodes the development set on a single thread with the exact search and with beams of different widths
+    // The first passes are mostly JIT compilation, so all the decodings are warmed up first. Then the passes go round
+    // the decodings, so a disturbance hits all of them alike, and the median pass of each one is printed
+    // next to the speedup over the exact search
+    public static void printBeamReport(){
+        try {
+            List<String[][]> sentences = new ArrayList<>();
+            for(String line : readLines(validationFile))
+                sentences.add(parseTaggedSentence(line));
+
+            compiled_model compiledModel = model.compile();
+            final int numOfDecodings = BEAM_WIDTHS.length + 1;
+            double[][] passes = new double[numOfDecodings][BEAM_REPORT_PASSES];
+            double[] tokensPerSecond = new double[numOfDecodings], accuracies = new double[numOfDecodings];
+            for(int pass = 0; pass < BEAM_REPORT_WARMUP_PASSES + BEAM_REPORT_PASSES; pass++)
+                for(int i = 0; i < numOfDecodings; i++) {
+                    compiledModel.setBeam((i == 0) ? 0 : BEAM_WIDTHS[i - 1], Double.POSITIVE_INFINITY);
+                    double[] result = decodeForBeamReport(compiledModel, sentences);
+                    if(pass < BEAM_REPORT_WARMUP_PASSES) continue;
+                    passes[i][pass - BEAM_REPORT_WARMUP_PASSES] = result[0];
+                    accuracies[i] = result[1];
+                }
+            compiledModel.setBeam(0, Double.POSITIVE_INFINITY);
+            for(int i = 0; i < numOfDecodings; i++) {
+                Arrays.sort(passes[i]);
+                tokensPerSecond[i] = passes[i][BEAM_REPORT_PASSES / 2];
+            }
+
+            println("\nBeam search report: ");
+            System.out.format("%-12s%-14s%-10s%-10s%n", "Beam width", "Tokens/sec", "Speedup", "Accuracy");
+            for(int i = 0; i < numOfDecodings; i++)
+                System.out.format("%-12s%-14s%-10s%-10s%n", (i == 0) ? "exact" : String.valueOf(BEAM_WIDTHS[i - 1]),
+                        new DecimalFormat("#").format(tokensPerSecond[i]),
+                        new DecimalFormat("#.##").format(tokensPerSecond[i] / tokensPerSecond[0]),
+                        new DecimalFormat("#.####").format(accuracies[i]));
+        } catch(IOException e) {
+            e.printStackTrace();
+        }
+    }
+    // Returns the tokens per second and the accuracy of one pass, only the decoding is timed
+    private static double[] decodeForBeamReport(compiled_model compiledModel, List<String[][]> sentences){
+        int[][] tags = new int[sentences.size()][];
+
+        long start = System.nanoTime();
+        for(int s = 0; s < tags.length; s++)
+            tags[s] = compiledModel.viberti(sentences.get(s)[0]);
+        long elapsed = System.nanoTime() - start;
+
+        int numOfTokens = 0, numOfCorrectTags = 0;
+        for(int s = 0; s < tags.length; s++) {
+            String[] predictedTags = compiledModel.toTags(tags[s]);
+            for(int i = 0; i < predictedTags.length; i++)
+                if(predictedTags[i].equals(sentences.get(s)[1][i]))
+                    numOfCorrectTags++;
+            numOfTokens += predictedTags.length;
+        }
+        return new double[]{numOfTokens / (elapsed / 1e9), (double) numOfCorrectTags / numOfTokens};
+    }
+    // Decodes the development set with the bigram decoding and with the anchored decoding, sequentially and in parallel,
+    // as sentences and as a single sequence of all the words, and checks that the tags are the same
+    public static void printAnchorReport(){
+        ExecutorService executor = Executors.newFixedThreadPool(NUM_OF_THREADS);
+        try {
+            compiled_model compiledModel = model.compile();
+            anchored_decoder[] decoders = {null, new anchored_decoder(compiledModel, null), new anchored_decoder(compiledModel, executor)};
+            List<int[]> sentences = new ArrayList<>();
+            int numOfWords = 0;
+            for(String line : readLines(validationFile)) {
+                String[] words = parseTaggedSentence(line)[0];
+                int[] wordIds = new int[words.length];
+                for(int i = 0; i < words.length; i++)
+                    wordIds[i] = compiledModel.getWordId(words[i]);
+                sentences.add(wordIds);
+                numOfWords += wordIds.length;
+            }
+            int[] sequence = new int[numOfWords];
+            numOfWords = 0;
+            for(int[] wordIds : sentences) {
+                System.arraycopy(wordIds, 0, sequence, numOfWords, wordIds.length);
+                numOfWords += wordIds.length;
+            }
+
+            // the spans of the ambiguous words between the anchors
+            int numOfAnchors = 0, numOfSpans = 0;
+            for(int[] wordIds : sentences) {
+                boolean inSpan = false;
+                for(int wordId : wordIds) {
+                    if(decoders[1].isAnchor(wordId)) numOfAnchors++;
+                    else if(!inSpan) numOfSpans++;
+                    inSpan = !decoders[1].isAnchor(wordId);
+                }
+            }
+
+            println("\nAnchored decoding report: ");
+            println("Anchor words in the vocabulary: " + decoders[1].getNumOfAnchors() + "/" + compiledModel.getVocabulary().size());
+            println("Anchors in the development set: " + numOfAnchors + "/" + numOfWords + ", average span length: "
+                    + new DecimalFormat("#.##").format((double) (numOfWords - numOfAnchors) / numOfSpans));
+            System.out.format("%-28s%-14s%-10s%-10s%n", "Decoding", "Tokens/sec", "Speedup", "Same tags");
+
+            List<int[]> single = Collections.singletonList(sequence);
+            double[] tokensPerSecond = new double[1], exact = new double[2];
+            int[][] expectedTags = decodeForAnchorReport(compiledModel, null, sentences, tokensPerSecond);
+            int[][] expectedSequenceTags = decodeForAnchorReport(compiledModel, null, single, tokensPerSecond);
+            String[] names = {"exact", "anchored", "anchored parallel"};
+            for(int i = 0; i < names.length; i++) {
+                for(int j = 0; j < 2; j++) {
+                    List<int[]> input = (j == 0) ? sentences : single;
+                    // the first run is only to warm up
+                    decodeForAnchorReport(compiledModel, decoders[i], input, tokensPerSecond);
+                    int[][] tags = decodeForAnchorReport(compiledModel, decoders[i], input, tokensPerSecond);
+                    if(i == 0) exact[j] = tokensPerSecond[0];
+                    System.out.format("%-28s%-14s%-10s%-10s%n", names[i] + ((j == 0) ? "" : " (1 line)"),
+                            new DecimalFormat("#").format(tokensPerSecond[0]),
+                            new DecimalFormat("#.##").format(tokensPerSecond[0] / exact[j]),
+                            Arrays.deepEquals(tags, (j == 0) ? expectedTags : expectedSequenceTags) ? "yes" : "no");
+                }
+            }
+        } catch(IOException e) {
+            e.printStackTrace();
+        } finally {
+            executor.shutdown();
+        }
+    }
+    // Returns the tags of the sentences decoded by the anchored decoder, or by the model if it is null,
+    // the tokens per second are set into tokensPerSecond[0]
+    private static int[][] decodeForAnchorReport(compiled_model compiledModel, anchored_decoder decoder, List<int[]> sentences,
+                                                 double[] tokensPerSecond){
+        int[][] tags = new int[sentences.size()][];
+        int numOfTokens = 0;
+
+        long start = System.nanoTime();
+        for(int i = 0; i < tags.length; i++) {
+            tags[i] = (decoder == null) ? compiledModel.viberti(sentences.get(i), sentences.get(i).length) :
+                    decoder.viberti(sentences.get(i), sentences.get(i).length);
+            numOfTokens += tags[i].length;
+        }
+        long elapsed = System.nanoTime() - start;
+
+        tokensPerSecond[0] = numOfTokens / (elapsed / 1e9);
+        return tags;
+    }
+    // Decodes the development set with the full precision model and with the quantized models, with the bigram and
+    // the trigram transitions, and prints the size of their log-probabilities and their accuracy
+    public static void printQuantizationReport(){
+        try {
+            List<String[][]> sentences = new ArrayList<>();
+            for(String line : readLines(validationFile))
+                sentences.add(parseTaggedSentence(line));
+            String[][] words = new String[sentences.size()][];
+            for(int i = 0; i < words.length; i++)
+                words[i] = sentences.get(i)[0];
+
+            compiled_model fullModel = model.compile();
+            compiled_model[] models = {fullModel, fullModel.quantize(quantized_table.FLOAT), fullModel.quantize(quantized_table.FIXED16)};
+            String[] names = {"full", "float", "fixed16"};
+
+            println("\nQuantized model report: ");
+            System.out.format("%-11s%-7s%-13s%-8s%-10s%-12s%-14s%n",
+                    "Precision", "Order", "Log-prob KB", "Saved", "Accuracy", "Difference", "Changed tags");
+            for(int order = 2; order <= (fullModel.hasTrigramTransitions() ? 3 : 2); order++) {
+                int[][] fullTags = null;
+                double fullAccuracy = 0;
+                for(int i = 0; i < models.length; i++) {
+                    // the models are decoded with the same order, a new compiled model decodes the bigrams by default
+                    models[i].setOrder(order);
+                    int[][] tags = new int[words.length][];
+                    for(int s = 0; s < words.length; s++)
+                        tags[s] = models[i].viberti(words[s]);
+                    models[i].setOrder(2);
+
+                    int numOfTokens = 0, numOfCorrectTags = 0, numOfChangedTags = 0;
+                    for(int s = 0; s < tags.length; s++)
+                        for(int t = 0; t < tags[s].length; t++) {
+                            if(models[i].getTag(tags[s][t]).equals(sentences.get(s)[1][t])) numOfCorrectTags++;
+                            if(fullTags != null && tags[s][t] != fullTags[s][t]) numOfChangedTags++;
+                            numOfTokens++;
+                        }
+                    double accuracy = (double) numOfCorrectTags / numOfTokens;
+                    if(i == 0) {
+                        fullTags = tags;
+                        fullAccuracy = accuracy;
+                    }
+
+                    double saved = 1.0 - (double) models[i].getSizeOfLogProbabilities() / fullModel.getSizeOfLogProbabilities();
+                    System.out.format("%-11s%-7s%-13s%-8s%-10s%-12s%-14s%n", names[i], order,
+                            new DecimalFormat("#.#").format(models[i].getSizeOfLogProbabilities() / 1024.0),
+                            (i == 0) ? "-" : new DecimalFormat("#.#%").format(saved),
+                            new DecimalFormat("#.####").format(accuracy),
+                            (i == 0) ? "-" : String.format("%+.4f", accuracy - fullAccuracy),
+                            (i == 0) ? "-" : numOfChangedTags);
+                }
+            }
+            println("");
+        } catch(IOException e) {
+            e.printStackTrace();
+        }
+    }
     public static void printConfusionMatrix(){
+        printConfusionMatrix(validationCounts);
+    }
+    public static void printConfusionMatrix(validation_counts validationCounts){
         final List<String> tagSpaceList = new ArrayList<>(tagSpace);
         final Double[][] prob = new Double[tagSpaceList.size()][tagSpaceList.size()];
 
         // Calculate the probabilities
         for(int i = 0; i < tagSpaceList.size(); i++)
             for(int j = 0; j < tagSpaceList.size(); j++)
-                prob[i][j] = (contingencyCount.get(tagSpaceList.get(i)).get(tagSpaceList.get(j)) == 0) ? 0.0 :
-                        (double)contingencyCount.get(tagSpaceList.get(i)).get(tagSpaceList.get(j)) / totalNumOfPredictions;
+                prob[i][j] = (validationCounts.getContingencyCount(tagSpaceList.get(i), tagSpaceList.get(j)) == 0) ? 0.0 :
+                        (double)validationCounts.getContingencyCount(tagSpaceList.get(i), tagSpaceList.get(j)) /
+                                validationCounts.getTotalNumOfPredictions();
 
 
         // Print the header of the table
@@ -343,38 +947,21 @@ public class build_tagger {
         println("");
     }
 
-    // == Insert methods ==
-    public static void insertTransition(String tagPrev, String tagCurr) {
-        // Validate tags
-        validateTag(tagPrev);
-        validateTag(tagCurr);
-
-        transitions.get(tagPrev).put(tagCurr, transitions.get(tagPrev).get(tagCurr) + 1);
-    }
-    public static void insertObservation(String tag, String word){
-        // Validate tags
-        validateTag(tag);
-
-        if(!observations.get(tag).containsKey(word))
-            observations.get(tag).put(word, 1.0);
-        else
-            observations.get(tag).put(word, observations.get(tag).get(word) + 1);
-    }
-
-    // === Check the validation of a POS PENN Treebank tag ===
-    private static boolean validateTag(String tag) {
-        if(!tagSpace.contains(tag) && !tag.equals(startTag) && !tag.equals(endTag))
-            throw new IllegalArgumentException("\'" + tag + "\' is not a valid PENN Treebank tag.");
-
-        return true;
-    }
-
     // === Auxiliary functions ===
     private static void println(Object o){
         System.out.println(o.toString());
     }
-    private static void incCount(Map<String, Integer> map, String token){
-        if(!map.containsKey(token)) map.put(token, 1);
-        else map.put(token, map.get(token) + 1);
+    // The lines are decoded as UTF-8 like the training data, whatever the default charset is
+    private static List<String> readLines(File file) throws IOException {
+        List<String> lines = new ArrayList<>();
+        BufferedReader r = tagging_stream.openReader(file.getPath());
+        try {
+            String s;
+            while ((s = r.readLine()) != null)
+                lines.add(s);
+        } finally {
+            r.close();
+        }
+        return lines;
     }
 }
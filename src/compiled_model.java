@@ -0,0 +1,710 @@
+import java.util.*;
+
+/**
+ * Index-based form of a pos_model which is used for the decoding.
+ * Tags are referred by their index in the tag space list,
+ * and all the probabilities are precomputed as log-probabilities.
+ */
+public class compiled_model {
+
+    // Each decoding thread reuses its own lattice
+    private static final ThreadLocal<viberti_workspace> workspaces = new ThreadLocal<viberti_workspace>() {
+        @Override
+        protected viberti_workspace initialValue() {
+            return new viberti_workspace();
+        }
+    };
+
+    // Tag space, the index of a tag is its id
+    private final List<String> tagSpaceList;
+    private final int numOfTags;
+
+    // Transition log-probabilities
+    // rows 0..N-1 and columns 0..N-1 are the tags,
+    // row N is the start tag and column N is the end tag
+    private final double[][] logTransitions;
+
+    // Trigram transition log-probabilities, null if the model has no trigram transitions
+    // the log-probability of curr after prev2 and prev1 is at (prev2 * (N + 1) + prev1) * (N + 1) + curr,
+    // N is the start tag for prev2 and prev1 and the end tag for curr
+    private final double[] logTrigramTransitions;
+
+    // Emission log-probabilities
+    // the total number of words observed for each tag
+    private final double[] emissionDenominators;
+
+    // Tag dictionary
+    // a known word is only tagged with the tags it is observed with in the training data,
+    // the candidates of the word w are at [candidateOffsets[w], candidateOffsets[w + 1]) in increasing tag order
+    // the candidates of the word V, after the last known word, are all the tags with the unknown word log-probabilities
+    private final vocabulary vocabulary;
+    private final int[] candidateOffsets;
+    private final int[] candidateTags;
+    private final double[] candidateLogEmissions;
+    private final int unknownWordId;
+
+    // Quantized model, null for the full precision
+    // the packed tables replace the trigram transitions and the emissions, the emissions are scaled by their tag and
+    // the trigram transitions by their current tag
+    private final quantized_table packedLogTrigramTransitions;
+    private final quantized_table packedLogEmissions;
+
+    // Beam search, disabled by default
+    // at each step only the beamWidth best states and the states within beamThreshold of the best state are kept
+    // a beam width of 0 does not limit the number of states
+    private volatile int beamWidth = 0;
+    private volatile double beamThreshold = Double.POSITIVE_INFINITY;
+
+    // Order of the HMM used for the decoding, 2 for the bigram and 3 for the trigram transitions
+    // the trigram decoding only keeps the best tag pair states at each word
+    private volatile int order = 2;
+    static final int TRIGRAM_MAX_PAIR_STATES = 24;
+    private static final double TRIGRAM_PAIR_THRESHOLD = Math.log(1e4);
+
+    // Vectorized max-plus of the bigram decoding, null for the scalar decoding
+    // the max-plus is computed for all the tags at once, which is only faster when the word has many candidates
+    private volatile max_plus maxPlus = max_plus.getVectorized();
+    private static final int VECTOR_MIN_CANDIDATES = 8;
+
+    // Cache of the decoded sentences, disabled by default
+    // it is cleared whenever the decoding changes
+    private volatile sentence_cache cache;
+
+    // Runtime metrics of the decoding, disabled by default
+    private volatile tagger_metrics metrics;
+
+    public compiled_model(List<String> tagSpaceList, double[][] logTransitions, double[] logTrigramTransitions,
+                          double[] emissionDenominators,
+                          vocabulary vocabulary, int[] candidateOffsets, int[] candidateTags, double[] candidateLogEmissions){
+        this(tagSpaceList, logTransitions, logTrigramTransitions, null, emissionDenominators,
+                vocabulary, candidateOffsets, candidateTags, candidateLogEmissions, null);
+    }
+    // Quantized model
+    public compiled_model(List<String> tagSpaceList, double[][] logTransitions, quantized_table packedLogTrigramTransitions,
+                          double[] emissionDenominators,
+                          vocabulary vocabulary, int[] candidateOffsets, int[] candidateTags, quantized_table packedLogEmissions){
+        this(tagSpaceList, logTransitions, null, packedLogTrigramTransitions, emissionDenominators,
+                vocabulary, candidateOffsets, candidateTags, null, packedLogEmissions);
+        if(packedLogTrigramTransitions != null && packedLogTrigramTransitions.getPrecision() != packedLogEmissions.getPrecision())
+            throw new IllegalArgumentException("Trigram transitions and emissions must have the same precision.");
+    }
+    private compiled_model(List<String> tagSpaceList, double[][] logTransitions,
+                           double[] logTrigramTransitions, quantized_table packedLogTrigramTransitions,
+                           double[] emissionDenominators, vocabulary vocabulary, int[] candidateOffsets, int[] candidateTags,
+                           double[] candidateLogEmissions, quantized_table packedLogEmissions){
+        this.tagSpaceList = tagSpaceList;
+        this.numOfTags = tagSpaceList.size();
+        this.logTransitions = logTransitions;
+        this.logTrigramTransitions = logTrigramTransitions;
+        this.packedLogTrigramTransitions = packedLogTrigramTransitions;
+        this.emissionDenominators = emissionDenominators;
+        this.vocabulary = vocabulary;
+        this.candidateOffsets = candidateOffsets;
+        this.candidateTags = candidateTags;
+        this.candidateLogEmissions = candidateLogEmissions;
+        this.packedLogEmissions = packedLogEmissions;
+        this.unknownWordId = vocabulary.size();
+
+        final int numOfTrigrams = (numOfTags + 1) * (numOfTags + 1) * (numOfTags + 1);
+        if(candidateOffsets.length != vocabulary.size() + 2)
+            throw new IllegalArgumentException("Tag dictionary does not match the vocabulary.");
+        if((candidateLogEmissions != null ? candidateLogEmissions.length : packedLogEmissions.size()) != candidateTags.length)
+            throw new IllegalArgumentException("Emissions do not match the tag dictionary.");
+        if((logTrigramTransitions != null && logTrigramTransitions.length != numOfTrigrams)
+                || (packedLogTrigramTransitions != null && packedLogTrigramTransitions.size() != numOfTrigrams))
+            throw new IllegalArgumentException("Trigram transitions do not match the tag space.");
+    }
+
+    // === Getters ===
+    public int getNumOfTags(){
+        return numOfTags;
+    }
+    public String getTag(int tagId){
+        return tagSpaceList.get(tagId);
+    }
+    public List<String> getTagSpaceList(){
+        return tagSpaceList;
+    }
+    public double getLogTransition(int prev, int curr){
+        return logTransitions[prev][curr];
+    }
+    public double getEmissionDenominator(int tagId){
+        return emissionDenominators[tagId];
+    }
+    public vocabulary getVocabulary(){
+        return vocabulary;
+    }
+    // Returns the id of the word, or the unknown word id V
+    public int getWordId(String word){
+        int w = vocabulary.getId(word);
+        return (w == -1) ? unknownWordId : w;
+    }
+    // Returns the id of the word encoded in the bytes [offset, offset + length) as UTF-8, or the unknown word id V
+    public int getWordId(byte[] bytes, int offset, int length){
+        int w = vocabulary.getId(bytes, offset, length);
+        return (w == -1) ? unknownWordId : w;
+    }
+    // Candidate tags of a word and their log-probabilities
+    public int getNumOfCandidates(int wordId){
+        return candidateOffsets[wordId + 1] - candidateOffsets[wordId];
+    }
+    public int getCandidateTag(int wordId, int j){
+        return candidateTags[candidateOffsets[wordId] + j];
+    }
+    public double getCandidateLogEmission(int wordId, int j){
+        return logEmission(candidateOffsets[wordId] + j);
+    }
+
+    // === Beam search ===
+    public void setBeam(int beamWidth, double beamThreshold){
+        if(beamWidth < 0 || !(beamThreshold >= 0))
+            throw new IllegalArgumentException("Beam width and threshold must not be negative.");
+
+        this.beamWidth = beamWidth;
+        this.beamThreshold = beamThreshold;
+        clearCache();
+    }
+    public boolean isBeamSearch(){
+        return beamWidth > 0 || beamThreshold < Double.POSITIVE_INFINITY;
+    }
+
+    // === Order of the HMM ===
+    public void setOrder(int order){
+        if(order != 2 && order != 3)
+            throw new IllegalArgumentException("Order of the HMM must be 2 or 3.");
+        if(order == 3 && !hasTrigramTransitions())
+            throw new IllegalArgumentException("The model has no trigram transitions.");
+
+        this.order = order;
+        clearCache();
+    }
+    public int getOrder(){
+        return order;
+    }
+    public boolean hasTrigramTransitions(){
+        return logTrigramTransitions != null || packedLogTrigramTransitions != null;
+    }
+
+    // === Quantization ===
+    // Returns the model with the trigram transitions and the emissions packed in the precision, FLOAT or FIXED16
+    // the bigram transitions are kept, they are only (N + 1)^2 values and the max-plus kernels take their rows
+    public compiled_model quantize(int precision){
+        if(isQuantized())
+            throw new IllegalStateException("The model is already quantized.");
+
+        quantized_table packedLogTrigramTransitions = null;
+        if(logTrigramTransitions != null) {
+            final int M = numOfTags + 1;
+            int[] currTags = new int[logTrigramTransitions.length];
+            for(int i = 0; i < currTags.length; i++)
+                currTags[i] = i % M;
+            packedLogTrigramTransitions = new quantized_table(logTrigramTransitions, currTags, M, precision);
+        }
+        return new compiled_model(tagSpaceList, logTransitions, packedLogTrigramTransitions, emissionDenominators,
+                vocabulary, candidateOffsets, candidateTags, new quantized_table(candidateLogEmissions, candidateTags, numOfTags, precision));
+    }
+    public boolean isQuantized(){
+        return packedLogEmissions != null;
+    }
+    // Bits of the packed log-probabilities, quantized_table.FULL if the model is not quantized
+    public int getPrecision(){
+        return isQuantized() ? packedLogEmissions.getPrecision() : quantized_table.FULL;
+    }
+    // Bytes of the transition, trigram transition and emission log-probabilities
+    public long getSizeOfLogProbabilities(){
+        final long M = numOfTags + 1;
+        long size = 8 * M * M;
+        if(logTrigramTransitions != null) size += 8L * logTrigramTransitions.length;
+        if(packedLogTrigramTransitions != null) size += packedLogTrigramTransitions.getSizeInBytes();
+        return size + (isQuantized() ? packedLogEmissions.getSizeInBytes() : 8L * candidateLogEmissions.length);
+    }
+
+    // === Vectorized decoding ===
+    // Enables the vectorized max-plus if the Vector API is available, the tags are the same either way
+    public void setVectorized(boolean vectorized){
+        this.maxPlus = vectorized ? max_plus.getVectorized() : null;
+    }
+    public boolean isVectorized(){
+        return maxPlus != null;
+    }
+
+    // === Cache of the decoded sentences ===
+    // A null cache disables it
+    public void setCache(sentence_cache cache){
+        if(cache != null) cache.clear();
+        this.cache = cache;
+    }
+    public sentence_cache getCache(){
+        return cache;
+    }
+    private void clearCache(){
+        sentence_cache cache = this.cache;
+        if(cache != null) cache.clear();
+    }
+
+    // === Runtime metrics ===
+    // A null metrics disables it
+    public void setMetrics(tagger_metrics metrics){
+        this.metrics = metrics;
+    }
+    public tagger_metrics getMetrics(){
+        return metrics;
+    }
+
+    // Flat arrays of the model, only for the model file and the anchored_decoder
+    // a quantized model has the packed tables instead of the arrays of the trigram transitions and the emissions
+    double[][] getLogTransitions(){
+        return logTransitions;
+    }
+    double[] getLogTrigramTransitions(){
+        return logTrigramTransitions;
+    }
+    quantized_table getPackedLogTrigramTransitions(){
+        return packedLogTrigramTransitions;
+    }
+    quantized_table getPackedLogEmissions(){
+        return packedLogEmissions;
+    }
+    double[] getEmissionDenominators(){
+        return emissionDenominators;
+    }
+    int[] getCandidateOffsets(){
+        return candidateOffsets;
+    }
+    int[] getCandidateTags(){
+        return candidateTags;
+    }
+    double[] getCandidateLogEmissions(){
+        return candidateLogEmissions;
+    }
+
+    // === Calculate the best path for a sequence of words ===
+    // Determine the best path by using Viberti algorithm
+    // with the workspace of the current thread
+    public int[] viberti(String[] words){
+        final viberti_workspace workspace = workspaces.get();
+        workspace.ensureCapacity(numOfTags, words.length);
+        for(int t = 0; t < words.length; t++)
+            workspace.wordIds[t] = getWordId(words[t]);
+        return viberti(workspace.wordIds, words.length);
+    }
+    // Determine the best path of the first length word ids, e.g. looked up by vocabulary.getId
+    // The trigram or the beam search is used if it is enabled,
+    // the sentences are looked up in the cache first if there is one,
+    // and the latency and the unknown words are recorded if there are metrics
+    public int[] viberti(int[] wordIds, int length){
+        final sentence_cache cache = this.cache;
+        final tagger_metrics metrics = this.metrics;
+        final long start = (metrics != null) ? System.nanoTime() : 0;
+        final viberti_workspace workspace = workspaces.get();
+
+        int[] tagIds;
+        if(cache == null)
+            tagIds = decode(wordIds, length, workspace);
+        else {
+            int[] key = Arrays.copyOf(wordIds, length);
+            tagIds = cache.get(key);
+            if(tagIds == null) {
+                tagIds = decode(wordIds, length, workspace);
+                cache.put(key, tagIds);
+            }
+        }
+
+        if(metrics != null)
+            recordSentence(metrics, wordIds, length, System.nanoTime() - start);
+        return tagIds;
+    }
+    private int[] decode(int[] wordIds, int length, viberti_workspace workspace){
+        if(length == 0)
+            return new int[0];
+        if(order == 3)
+            return trigramViberti(wordIds, length, workspace);
+        if(isBeamSearch())
+            return beamViberti(wordIds, length, beamWidth, beamThreshold, workspace);
+        return viberti(wordIds, length, workspace);
+    }
+    public int[] viberti(int[] wordIds, int length, viberti_workspace workspace){
+        // N is the number of states, T is the number of observations
+        final int N = numOfTags;
+        final int T = length;
+
+        workspace.ensureCapacity(N, T);
+        final double[] viberti = workspace.viberti;
+        final int[] backPointer = workspace.backPointer;
+        final int[] offsets = workspace.offsets;
+        final int[] lengths = workspace.lengths;
+
+        // candidate states of each observation
+        findCandidates(wordIds, length, offsets, lengths);
+
+        // initialization step
+        for(int j = 0; j < lengths[0]; j++)
+            viberti[j] = logTransitions[N][candidateTags[offsets[0] + j]] + logEmission(offsets[0] + j);
+
+        // recursion step
+        for(int t = 1; t < T; t++)
+            vibertiStep(viberti, backPointer, (t - 1) * N, offsets[t - 1], lengths[t - 1], t * N, offsets[t], lengths[t], workspace);
+
+        // termination step
+        int maxProbIndex = bestLastCandidate(viberti, (T - 1) * N, offsets[T - 1], lengths[T - 1]);
+
+        // backtracing the path over the candidate indices, then converting them into tag ids
+        int[] tags = new int[T];
+        tags[T - 1] = maxProbIndex;
+        for(int t = T - 1; t >= 1; t--)
+            tags[t - 1] = backPointer[t * N + tags[t]];
+        for(int t = 0; t < T; t++)
+            tags[t] = candidateTags[offsets[t] + tags[t]];
+
+        return tags;
+    }
+    // One step of the recursion: the cells of the candidates [offset, offset + length) of a word,
+    // starting at the index column of the lattice, from the cells of the candidates of the previous word
+    void vibertiStep(double[] viberti, int[] backPointer, int prevColumn, int prevOffset, int prevLength,
+                             int column, int offset, int length, viberti_workspace workspace){
+        // the vectorized max-plus of all the tags, the candidates take their maximums from it
+        final max_plus maxPlus = this.maxPlus;
+        final boolean vectorized = maxPlus != null && length >= VECTOR_MIN_CANDIDATES;
+        if(vectorized)
+            maxPlus.maxPlus(viberti, prevColumn, candidateTags, prevOffset, prevLength, logTransitions, numOfTags,
+                    workspace.maxScores, workspace.maxIndices);
+
+        for (int j = 0; j < length; j++) {
+            final int s = candidateTags[offset + j];
+
+            // maximum of viberti[i][t - 1] + log P(s | i) over the candidate states i
+            int maxProbIndex = 0;
+            double maxProb;
+            if(vectorized) {
+                maxProbIndex = workspace.maxIndices[s];
+                maxProb = workspace.maxScores[s];
+            } else {
+                maxProb = viberti[prevColumn] + logTransitions[candidateTags[prevOffset]][s];
+                for(int i = 1; i < prevLength; i++){
+                    double currProb = viberti[prevColumn + i] + logTransitions[candidateTags[prevOffset + i]][s];
+                    if (currProb > maxProb) {
+                        maxProbIndex = i;
+                        maxProb = currProb;
+                    }
+                }
+            }
+
+            viberti[column + j] = maxProb + logEmission(offset + j);
+            backPointer[column + j] = maxProbIndex;
+        }
+    }
+    // Index of the best candidate of the last word, followed by the end tag
+    int bestLastCandidate(double[] viberti, int column, int offset, int length){
+        return bestCandidateBefore(viberti, column, offset, length, numOfTags);
+    }
+    // Index of the best candidate of a word which is followed by the tag next
+    int bestCandidateBefore(double[] viberti, int column, int offset, int length, int next){
+        int maxProbIndex = 0;
+        double maxProb = viberti[column] + logTransitions[candidateTags[offset]][next];
+        for(int i = 1; i < length; i++){
+            double currProb = viberti[column + i] + logTransitions[candidateTags[offset + i]][next];
+            if (currProb > maxProb) {
+                maxProbIndex = i;
+                maxProb = currProb;
+            }
+        }
+        return maxProbIndex;
+    }
+
+    // === Calculate an approximate best path with the beam search ===
+    // Only the states kept in the beam of the previous observation are expanded
+    // A column which is kept whole, e.g. a known word with fewer candidates than the beam width, is expanded by the
+    // step of the exact search, so the beam only costs something after the wide columns, like the unknown words.
+    public int[] beamViberti(int[] wordIds, int length, int beamWidth, double beamThreshold, viberti_workspace workspace){
+        final int N = numOfTags;
+        final int T = length;
+
+        workspace.ensureCapacity(N, T);
+        final double[] viberti = workspace.viberti;
+        final int[] backPointer = workspace.backPointer;
+        final int[] offsets = workspace.offsets;
+        final int[] lengths = workspace.lengths;
+        final int[] beam = workspace.beam;
+
+        // candidate states of each observation
+        findCandidates(wordIds, length, offsets, lengths);
+
+        // initialization step
+        for(int j = 0; j < lengths[0]; j++)
+            viberti[j] = logTransitions[N][candidateTags[offsets[0] + j]] + logEmission(offsets[0] + j);
+        int beamSize = pruneColumn(viberti, 0, lengths[0], beamWidth, beamThreshold, beam, workspace.scores);
+
+        // recursion step
+        for(int t = 1; t < T; t++) {
+            final int prevOffset = offsets[t - 1];
+            final int prevColumn = (t - 1) * N;
+            final int column = t * N;
+
+            if(beamSize == lengths[t - 1])
+                vibertiStep(viberti, backPointer, prevColumn, prevOffset, lengths[t - 1], column, offsets[t], lengths[t], workspace);
+            else {
+                for (int j = 0; j < lengths[t]; j++) {
+                    final int s = candidateTags[offsets[t] + j];
+
+                    // maximum of viberti[i][t - 1] + log P(s | i) over the states i in the beam
+                    int maxProbIndex = beam[0];
+                    double maxProb = viberti[prevColumn + beam[0]] + logTransitions[candidateTags[prevOffset + beam[0]]][s];
+                    for(int b = 1; b < beamSize; b++){
+                        final int i = beam[b];
+                        double currProb = viberti[prevColumn + i] + logTransitions[candidateTags[prevOffset + i]][s];
+                        if (currProb > maxProb) {
+                            maxProbIndex = i;
+                            maxProb = currProb;
+                        }
+                    }
+
+                    viberti[column + j] = maxProb + logEmission(offsets[t] + j);
+                    backPointer[column + j] = maxProbIndex;
+                }
+            }
+            beamSize = pruneColumn(viberti, column, lengths[t], beamWidth, beamThreshold, beam, workspace.scores);
+        }
+
+        // termination step
+        final int lastOffset = offsets[T - 1];
+        final int lastColumn = (T - 1) * N;
+        int maxProbIndex;
+        if(beamSize == lengths[T - 1])
+            maxProbIndex = bestLastCandidate(viberti, lastColumn, lastOffset, lengths[T - 1]);
+        else {
+            maxProbIndex = beam[0];
+            double maxProb = viberti[lastColumn + beam[0]] + logTransitions[candidateTags[lastOffset + beam[0]]][N];
+            for(int b = 1; b < beamSize; b++){
+                final int i = beam[b];
+                double currProb = viberti[lastColumn + i] + logTransitions[candidateTags[lastOffset + i]][N];
+                if (currProb > maxProb) {
+                    maxProbIndex = i;
+                    maxProb = currProb;
+                }
+            }
+        }
+
+        // backtracing the path
+        int[] tags = new int[T];
+        tags[T - 1] = maxProbIndex;
+        for(int t = T - 1; t >= 1; t--)
+            tags[t - 1] = backPointer[t * N + tags[t]];
+        for(int t = 0; t < T; t++)
+            tags[t] = candidateTags[offsets[t] + tags[t]];
+
+        return tags;
+    }
+    // Keeps the best states of a column in the beam, in increasing candidate order
+    // Returns the number of the states in the beam, which is the length of the column if it is kept whole,
+    // and then the beam is not filled
+    private static int pruneColumn(double[] viberti, int column, int length, int beamWidth, double beamThreshold,
+                                   int[] beam, double[] selection){
+        // a column which fits in the beam is kept whole without looking at its scores, unless there is a threshold
+        final boolean limited = beamWidth > 0 && beamWidth < length;
+        if(!limited && beamThreshold == Double.POSITIVE_INFINITY)
+            return length;
+
+        // the beamWidth best scores in descending order, or only the best score without a beam width,
+        // NaN scores are never kept
+        final int k = limited ? beamWidth : 1;
+        int n = 0;
+        for(int j = 0; j < length; j++) {
+            double score = viberti[column + j];
+            if(!(score >= Double.NEGATIVE_INFINITY) || (n == k && score <= selection[n - 1])) continue;
+
+            int i = (n < k) ? n++ : n - 1;
+            for(; i > 0 && selection[i - 1] < score; i--)
+                selection[i] = selection[i - 1];
+            selection[i] = score;
+        }
+
+        // keep all the states if none of them has a score
+        if(n == 0)
+            return length;
+
+        // the states under the threshold are dropped, and the score of the beamWidth-th best state is the cutoff
+        double cutoff = selection[0] - beamThreshold;
+        if(limited && n == k)
+            cutoff = Math.max(cutoff, selection[k - 1]);
+
+        int beamSize = 0;
+        for(int j = 0; j < length && (beamWidth == 0 || beamSize < beamWidth); j++)
+            if(viberti[column + j] >= cutoff)
+                beam[beamSize++] = j;
+        return beamSize;
+    }
+
+    // === Calculate the best path with the trigram transitions ===
+    // The states are the tag pairs (t_i-1, t_i), which are only created from the candidate tags.
+    // At each word only the TRIGRAM_MAX_PAIR_STATES best pair states within TRIGRAM_PAIR_THRESHOLD
+    // of the best one are kept, so a word is extended by at most that many different t_i-1
+    // and the work per word stays close to the bigram decoding.
+    // The kept states of all the words are stored one after the other: the candidate index of t_i-1 (-1 for the start),
+    // the candidate index of t_i, the log-probability and the index of the previous state (-1 for the start).
+    public int[] trigramViberti(int[] wordIds, int length, viberti_workspace workspace){
+        final int N = numOfTags;
+        final int M = N + 1;
+        final int T = length;
+
+        workspace.ensureCapacity(N, T);
+        workspace.ensureTrigramCapacity(N, T);
+        final int[] offsets = workspace.offsets;
+        final int[] lengths = workspace.lengths;
+        final int[] stateStarts = workspace.stateStarts;
+        final int[] pairSlots = workspace.pairSlots;
+        final int[] slotCandidates = workspace.slotCandidates;
+        final double[] pairScores = workspace.pairScores;
+        final int[] pairBackPointers = workspace.pairBackPointers;
+
+        // candidate states of each observation
+        findCandidates(wordIds, length, offsets, lengths);
+
+        // initialization step, the pairs (start, t_0)
+        slotCandidates[0] = -1;
+        for(int k = 0; k < lengths[0]; k++) {
+            pairScores[k] = logTrigramTransition((N * M + N) * M, candidateTags[offsets[0] + k])
+                    + logEmission(offsets[0] + k);
+            pairBackPointers[k] = -1;
+        }
+        stateStarts[0] = 0;
+        stateStarts[1] = keepPairStates(workspace, 0, 1, lengths[0]);
+
+        // recursion step
+        for(int t = 1; t < T; t++) {
+            final int currLength = lengths[t];
+            final int[] statePrev = workspace.statePrev, stateCurr = workspace.stateCurr;
+            final double[] stateScores = workspace.stateScores;
+
+            // best predecessor of each pair (j, k) among the kept states of the previous word,
+            // the pairs of each t_i-1 candidate j of the kept states are in the slot of j
+            int numOfSlots = 0;
+            for(int p = stateStarts[t - 1]; p < stateStarts[t]; p++) {
+                final int j = stateCurr[p];
+                final int prev2 = (statePrev[p] == -1) ? N : candidateTags[offsets[t - 2] + statePrev[p]];
+                final int prev1 = candidateTags[offsets[t - 1] + j];
+                final int row = (prev2 * M + prev1) * M;
+
+                final boolean first = (pairSlots[j] == -1);
+                if(first) {
+                    pairSlots[j] = numOfSlots;
+                    slotCandidates[numOfSlots++] = j;
+                }
+                final int column = pairSlots[j] * currLength;
+
+                for(int k = 0; k < currLength; k++) {
+                    double currProb = stateScores[p] + logTrigramTransition(row, candidateTags[offsets[t] + k]);
+                    if(first || currProb > pairScores[column + k]) {
+                        pairScores[column + k] = currProb;
+                        pairBackPointers[column + k] = p;
+                    }
+                }
+            }
+            for(int slot = 0; slot < numOfSlots; slot++) {
+                pairSlots[slotCandidates[slot]] = -1;
+                for(int k = 0, column = slot * currLength; k < currLength; k++)
+                    pairScores[column + k] += logEmission(offsets[t] + k);
+            }
+
+            stateStarts[t + 1] = keepPairStates(workspace, stateStarts[t], numOfSlots, currLength);
+        }
+
+        // termination step
+        int maxProbState = stateStarts[T - 1];
+        double maxProb = Double.NaN;
+        for(int p = stateStarts[T - 1]; p < stateStarts[T]; p++) {
+            final int prev2 = (workspace.statePrev[p] == -1) ? N : candidateTags[offsets[T - 2] + workspace.statePrev[p]];
+            final int prev1 = candidateTags[offsets[T - 1] + workspace.stateCurr[p]];
+            double currProb = workspace.stateScores[p] + logTrigramTransition((prev2 * M + prev1) * M, N);
+            if(p == stateStarts[T - 1] || currProb > maxProb) {
+                maxProbState = p;
+                maxProb = currProb;
+            }
+        }
+
+        // backtracing the path over the states
+        int[] tags = new int[T];
+        for(int t = T - 1, p = maxProbState; t >= 0; t--, p = workspace.stateBackPointers[p])
+            tags[t] = candidateTags[offsets[t] + workspace.stateCurr[p]];
+
+        return tags;
+    }
+    // Adds the best pairs of the slots to the kept states after start, in increasing pair order
+    // Returns the end of the kept states
+    private static int keepPairStates(viberti_workspace workspace, int start, int numOfSlots, int currLength){
+        final double[] pairScores = workspace.pairScores;
+        final int numOfPairs = numOfSlots * currLength;
+
+        // the best score, NaN scores are never kept
+        double best = Double.NEGATIVE_INFINITY;
+        boolean found = false;
+        for(int pair = 0; pair < numOfPairs; pair++)
+            if(pairScores[pair] >= best) {
+                best = pairScores[pair];
+                found = true;
+            }
+
+        // the pairs under the threshold are dropped, then the score of the last of the best pairs is the cutoff,
+        // the best scores are kept in descending order in the selection
+        // all the pairs can be kept if none of them has a score
+        double cutoff = best - TRIGRAM_PAIR_THRESHOLD;
+        final double[] selection = workspace.pairSelection;
+        int n = 0;
+        for(int pair = 0; found && pair < numOfPairs; pair++) {
+            double score = pairScores[pair];
+            if(!(score >= cutoff) || (n == TRIGRAM_MAX_PAIR_STATES && score <= selection[n - 1])) continue;
+
+            int i = (n < TRIGRAM_MAX_PAIR_STATES) ? n++ : n - 1;
+            for(; i > 0 && selection[i - 1] < score; i--)
+                selection[i] = selection[i - 1];
+            selection[i] = score;
+        }
+        if(n == TRIGRAM_MAX_PAIR_STATES)
+            cutoff = selection[n - 1];
+
+        int end = start;
+        for(int slot = 0; slot < numOfSlots; slot++)
+            for(int k = 0, pair = slot * currLength; k < currLength && end < start + TRIGRAM_MAX_PAIR_STATES; k++, pair++)
+                if(!found || pairScores[pair] >= cutoff) {
+                    workspace.statePrev[end] = workspace.slotCandidates[slot];
+                    workspace.stateCurr[end] = k;
+                    workspace.stateScores[end] = pairScores[pair];
+                    workspace.stateBackPointers[end] = workspace.pairBackPointers[pair];
+                    end++;
+                }
+        return end;
+    }
+
+    // Records the latency and the unknown words of the first length word ids
+    private void recordSentence(tagger_metrics metrics, int[] wordIds, int length, long nanos){
+        int numOfUnknownWords = 0;
+        for(int t = 0; t < length; t++)
+            if(wordIds[t] == unknownWordId) numOfUnknownWords++;
+        metrics.recordSentence(length, numOfUnknownWords, nanos);
+    }
+    // Emission log-probability of a candidate of the tag dictionary, and the trigram transition log-probability of curr
+    // at the row (prev2 * (N + 1) + prev1) * (N + 1), from the arrays or from the packed tables of a quantized model
+    private double logEmission(int candidate){
+        return (candidateLogEmissions != null) ? candidateLogEmissions[candidate] :
+                packedLogEmissions.get(candidate, candidateTags[candidate]);
+    }
+    private double logTrigramTransition(int row, int curr){
+        return (logTrigramTransitions != null) ? logTrigramTransitions[row + curr] :
+                packedLogTrigramTransitions.get(row + curr, curr);
+    }
+    // Finds the range of the candidate states of each word in the tag dictionary
+    private void findCandidates(int[] wordIds, int length, int[] offsets, int[] lengths){
+        for(int t = 0; t < length; t++) {
+            int w = wordIds[t];
+            offsets[t] = candidateOffsets[w];
+            lengths[t] = candidateOffsets[w + 1] - candidateOffsets[w];
+        }
+    }
+
+    // Converts tag ids into the tags
+    public String[] toTags(int[] tagIds){
+        String[] tags = new String[tagIds.length];
+        for(int i = 0; i < tagIds.length; i++)
+            tags[i] = tagSpaceList.get(tagIds[i]);
+        return tags;
+    }
+}
@@ -0,0 +1,24 @@
+import java.io.*;
+
+/**
+ * Converts a model file saved by Java serialization into the binary model file format.
+ */
+public class convert_model {
+
+    public static void main(String[] args){
+        if(args.length != 2) {
+            System.err.println("usage: java convert_model <serialized_model_file> <model_file>");
+            System.exit(1);
+        }
+
+        try {
+            pos_model model = run_tagger.loadSerializedHMMModel(new File(args[0]));
+            binary_model.save(model, new File(args[1]));
+            System.out.println("Model is converted!");
+        } catch(IOException e) {
+            e.printStackTrace();
+        } catch(ClassNotFoundException e) {
+            e.printStackTrace();
+        }
+    }
+}
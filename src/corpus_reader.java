@@ -0,0 +1,152 @@
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Byte-level reader of a corpus, one sentence per line.
+ * The file is memory-mapped in windows, and each line is copied once into a reusable byte buffer
+ * while its tokens and the word/tag separators of the tokens are found, so no String is created.
+ *
+ * The bytes are UTF-8. Lines end with "\n", "\r\n" or "\r" like BufferedReader.readLine, and the tokens of a line are split at the spaces
+ * like line.split(" "): the empty tokens between spaces are kept and the trailing ones are dropped.
+ */
+public class corpus_reader implements Closeable {
+
+    // Size of a mapped window of the file, a window is moved forward when a line reaches its end
+    private static final long WINDOW_SIZE = 1 << 28;
+
+    private final FileChannel channel;
+    private final long end;
+
+    // Mapped window [windowStart, windowStart + window.capacity()) and the position of the next line
+    private MappedByteBuffer window;
+    private long windowStart;
+    private long position;
+
+    // Current line and its tokens, a token is [tokenStarts[i], tokenEnds[i]) of the line
+    // and tagSeparators[i] is the index of its last '/' in the line, or -1
+    private byte[] line = new byte[1 << 12];
+    private int lineLength;
+    private int[] tokenStarts = new int[64];
+    private int[] tokenEnds = new int[64];
+    private int[] tagSeparators = new int[64];
+    private int numOfTokens;
+
+    public corpus_reader(File file) throws IOException {
+        this(file, 0, file.length());
+    }
+    // Reader of the lines in the byte range [start, end) of the file, start must be at the beginning of a line
+    public corpus_reader(File file, long start, long end) throws IOException {
+        this.channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        this.end = Math.min(end, channel.size());
+        this.position = start;
+        this.windowStart = start;
+    }
+
+    // === Read the next line ===
+    // Returns false at the end of the range
+    public boolean nextLine() throws IOException {
+        if(position >= end) return false;
+
+        lineLength = 0;
+        numOfTokens = 0;
+        int tokenStart = 0, tagSeparator = -1;
+        boolean hasSpace = false;
+
+        while(position < end) {
+            if(window == null || position >= windowStart + window.capacity())
+                map(position);
+
+            // scan the window until the end of the line
+            final MappedByteBuffer w = window;
+            final int limit = (int) (Math.min(end, windowStart + w.capacity()) - windowStart);
+            int i = (int) (position - windowStart);
+            for(; i < limit; i++) {
+                byte b = w.get(i);
+                if(b == '\n' || b == '\r') break;
+
+                if(lineLength == line.length) line = Arrays.copyOf(line, 2 * line.length);
+                if(b == ' ') {
+                    addToken(tokenStart, lineLength, tagSeparator);
+                    tokenStart = lineLength + 1;
+                    tagSeparator = -1;
+                    hasSpace = true;
+                } else if(b == '/') {
+                    tagSeparator = lineLength;
+                }
+                line[lineLength++] = b;
+            }
+
+            position = windowStart + i;
+            if(i < limit) {
+                // skip the line break, "\r\n" is a single one
+                boolean carriageReturn = w.get(i) == '\r';
+                position++;
+                if(carriageReturn && position < end) {
+                    if(position >= windowStart + window.capacity())
+                        map(position);
+                    if(window.get((int) (position - windowStart)) == '\n')
+                        position++;
+                }
+                break;
+            }
+        }
+
+        addToken(tokenStart, Math.max(tokenStart, lineLength), (tagSeparator < lineLength) ? tagSeparator : -1);
+
+        // the trailing empty tokens are dropped, unless the line has no space at all
+        if(hasSpace)
+            while(numOfTokens > 0 && tokenEnds[numOfTokens - 1] == tokenStarts[numOfTokens - 1])
+                numOfTokens--;
+        return true;
+    }
+
+    // === Getters of the current line ===
+    // Bytes of the line, only [0, getLineLength()) belongs to the line
+    public byte[] getLine(){
+        return line;
+    }
+    public int getLineLength(){
+        return lineLength;
+    }
+    public int getNumOfTokens(){
+        return numOfTokens;
+    }
+    public int getTokenStart(int i){
+        return tokenStarts[i];
+    }
+    public int getTokenEnd(int i){
+        return tokenEnds[i];
+    }
+    // Index of the last '/' of the token in the line, or -1 if the token has none
+    public int getTagSeparator(int i){
+        return tagSeparators[i];
+    }
+
+    @Override
+    public void close() throws IOException {
+        window = null;
+        channel.close();
+    }
+
+    // === Auxiliary functions ===
+    private void addToken(int start, int end, int tagSeparator){
+        if(numOfTokens == tokenStarts.length) {
+            tokenStarts = Arrays.copyOf(tokenStarts, 2 * numOfTokens);
+            tokenEnds = Arrays.copyOf(tokenEnds, 2 * numOfTokens);
+            tagSeparators = Arrays.copyOf(tagSeparators, 2 * numOfTokens);
+        }
+        tokenStarts[numOfTokens] = start;
+        tokenEnds[numOfTokens] = end;
+        tagSeparators[numOfTokens] = tagSeparator;
+        numOfTokens++;
+    }
+    private void map(long start) throws IOException {
+        windowStart = start;
+        window = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(WINDOW_SIZE, end - start));
+    }
+}
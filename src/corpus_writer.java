@@ -0,0 +1,62 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Byte-level writer of a corpus.
+ * Records are copied into a large direct buffer, which is written to the channel when it is full,
+ * so the bytes of the words go from the input to the channel without any String or Writer.
+ */
+public class corpus_writer implements Closeable {
+
+    private static final int BUFFER_SIZE = 1 << 22;
+    private static final byte[] LINE_SEPARATOR = System.lineSeparator().getBytes(StandardCharsets.UTF_8);
+
+    private final WritableByteChannel channel;
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+
+    public corpus_writer(WritableByteChannel channel){
+        this.channel = channel;
+    }
+
+    // === Write ===
+    public void write(byte[] bytes, int offset, int length) throws IOException {
+        while(length > buffer.remaining()) {
+            int n = buffer.remaining();
+            buffer.put(bytes, offset, n);
+            offset += n;
+            length -= n;
+            flush();
+        }
+        buffer.put(bytes, offset, length);
+    }
+    public void write(byte[] bytes) throws IOException {
+        write(bytes, 0, bytes.length);
+    }
+    public void write(byte b) throws IOException {
+        if(!buffer.hasRemaining()) flush();
+        buffer.put(b);
+    }
+    public void newLine() throws IOException {
+        write(LINE_SEPARATOR);
+    }
+
+    // Writes the buffered bytes to the channel
+    public void flush() throws IOException {
+        buffer.flip();
+        while(buffer.hasRemaining())
+            channel.write(buffer);
+        buffer.clear();
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            flush();
+        } finally {
+            channel.close();
+        }
+    }
+}
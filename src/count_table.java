@@ -0,0 +1,88 @@
+import java.util.Arrays;
+
+/**
+ * Counts of non-negative int keys, e.g. word ids.
+ * It is an open addressing hash table with linear probing over primitive arrays,
+ * so counting a key does not allocate anything.
+ *
+ * The entries are visited by their slot: the slots [0, getCapacity()) with hasKey(slot) are the entries.
+ */
+public class count_table {
+
+    private static final int EMPTY = -1;
+
+    private int[] keys;
+    private long[] counts;
+    private int size;
+
+    public count_table(){
+        keys = new int[16];
+        counts = new long[16];
+        Arrays.fill(keys, EMPTY);
+    }
+
+    // === Counting ===
+    public void add(int key, long count){
+        final int mask = keys.length - 1;
+        int i = hash(key) & mask;
+        while(keys[i] != EMPTY) {
+            if(keys[i] == key) {
+                counts[i] += count;
+                return;
+            }
+            i = (i + 1) & mask;
+        }
+
+        keys[i] = key;
+        counts[i] = count;
+        // keep the load factor under 0.5
+        if(2 * ++size > keys.length) rehash(2 * keys.length);
+    }
+    // Returns the count of the key, 0 if it is not counted
+    public long get(int key){
+        final int mask = keys.length - 1;
+        for(int i = hash(key) & mask; keys[i] != EMPTY; i = (i + 1) & mask)
+            if(keys[i] == key) return counts[i];
+        return 0;
+    }
+    public int size(){
+        return size;
+    }
+
+    // === Entries by slot ===
+    public int getCapacity(){
+        return keys.length;
+    }
+    public boolean hasKey(int slot){
+        return keys[slot] != EMPTY;
+    }
+    public int getKey(int slot){
+        return keys[slot];
+    }
+    public long getCount(int slot){
+        return counts[slot];
+    }
+
+    // === Auxiliary functions ===
+    private void rehash(int capacity){
+        int[] oldKeys = keys;
+        long[] oldCounts = counts;
+        keys = new int[capacity];
+        counts = new long[capacity];
+        Arrays.fill(keys, EMPTY);
+
+        final int mask = capacity - 1;
+        for(int slot = 0; slot < oldKeys.length; slot++)
+            if(oldKeys[slot] != EMPTY) {
+                int i = hash(oldKeys[slot]) & mask;
+                while(keys[i] != EMPTY) i = (i + 1) & mask;
+                keys[i] = oldKeys[slot];
+                counts[i] = oldCounts[slot];
+            }
+    }
+    // consecutive ids are spread over the table
+    private static int hash(int key){
+        int h = key * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+}
@@ -0,0 +1,95 @@
+/**
+ * Max-plus step of the Viberti recursion: for each tag s of [0, width),
+ * the first index i of [0, length) with the maximum of scores[scoreOffset + i] + weights[rows[rowOffset + i]][s].
+ * This is the scalar kernel. A vectorized kernel using the incubating Java Vector API is compiled from src-vector
+ * on JDK 17 or later, and it is only used when the class is on the class path and the JVM is started with
+ * --add-modules jdk.incubator.vector. Both kernels give exactly the same results as the loop of the decoder.
+ *
+ * The JIT of JDK 17 does not compile the mask conversions of the kernel into vector instructions, which makes it
+ * slower than the scalar kernel, so by default it is only used on JDK 21 or later. -Dpostagger.vector=true uses it
+ * on any JDK with the Vector API and -Dpostagger.vector=false never uses it.
+ */
+public class max_plus {
+
+    // === Kernels ===
+    // Returns the vectorized kernel, or null if it is not available or not used
+    public static max_plus getVectorized(){
+        return VectorizedKernel.INSTANCE;
+    }
+    public String getName(){
+        return "scalar";
+    }
+
+    // === Max-plus ===
+    // Stores the maximum of each tag s in maxScores[s] and its index in maxIndices[s], length must be positive
+    // the maximum starts with the index 0 and is only replaced by a greater sum, so a NaN sum at the index 0 is kept
+    public void maxPlus(double[] scores, int scoreOffset, int[] rows, int rowOffset, int length,
+                        double[][] weights, int width, double[] maxScores, int[] maxIndices){
+        final double[] firstRow = weights[rows[rowOffset]];
+        for(int s = 0; s < width; s++) {
+            maxScores[s] = scores[scoreOffset] + firstRow[s];
+            maxIndices[s] = 0;
+        }
+        for(int i = 1; i < length; i++) {
+            final double score = scores[scoreOffset + i];
+            final double[] row = weights[rows[rowOffset + i]];
+            for(int s = 0; s < width; s++) {
+                double sum = score + row[s];
+                if(sum > maxScores[s]) {
+                    maxScores[s] = sum;
+                    maxIndices[s] = i;
+                }
+            }
+        }
+    }
+
+    // === Auxiliary functions ===
+    // The vectorized kernel is loaded on first use, after both kernel classes are initialized
+    private static final class VectorizedKernel {
+        static final max_plus INSTANCE = loadVectorized();
+    }
+    // The kernel is checked against the scalar kernel once, since the Vector API classes are only linked on the first call
+    private static max_plus loadVectorized(){
+        String vector = System.getProperty("postagger.vector", "auto");
+        if(vector.equals("false") || (vector.equals("auto") && getJavaVersion() < 21))
+            return null;
+
+        try {
+            max_plus kernel = (max_plus) Class.forName("max_plus_vector").getDeclaredConstructor().newInstance();
+
+            final int length = 7, width = 37;
+            double[] scores = new double[length + 1];
+            double[][] weights = new double[length][width + 1];
+            int[] rows = new int[length + 1];
+            for(int i = 0; i < length; i++) {
+                scores[i + 1] = (i % 5 == 4) ? Double.NEGATIVE_INFINITY : -((i * 7919) % 31);
+                rows[i + 1] = length - 1 - i;
+                for(int s = 0; s < width; s++)
+                    weights[i][s] = (s % 7 == i) ? Double.NaN : -(((i + 1) * s * 104729) % 17);
+            }
+            double[] maxScores = new double[width], expectedScores = new double[width];
+            int[] maxIndices = new int[width], expectedIndices = new int[width];
+            for(int w = 0; w <= width; w++) {
+                kernel.maxPlus(scores, 1, rows, 1, length, weights, w, maxScores, maxIndices);
+                new max_plus().maxPlus(scores, 1, rows, 1, length, weights, w, expectedScores, expectedIndices);
+                for(int s = 0; s < w; s++)
+                    if(maxIndices[s] != expectedIndices[s]
+                            || Double.doubleToLongBits(maxScores[s]) != Double.doubleToLongBits(expectedScores[s]))
+                        return null;
+            }
+            return kernel;
+        } catch (ReflectiveOperationException | LinkageError e) {
+            return null;
+        }
+    }
+    // Feature version of the JVM, 8 for "1.8" and 21 for "21"
+    private static int getJavaVersion(){
+        String version = System.getProperty("java.specification.version");
+        if(version.startsWith("1.")) version = version.substring(2);
+        try {
+            return Integer.parseInt(version.split("\\.")[0]);
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+}
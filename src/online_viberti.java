@@ -0,0 +1,226 @@
+/**
+ * Online Viberti decoding of the bigram model, for sentences of any length which are given one word at a time.
+ *
+ * The lattice is a ring of window columns. After each word, the best paths of all the candidates of the word
+ * are traced back until they meet: every later path goes through the candidate where they meet, so the tags
+ * up to it are committed, and they are exactly the tags of compiled_model.viberti.
+ * If the paths do not meet within the window, the older half of the window is committed on the path of
+ * the best candidate of the last word, and the candidates which do not continue that path are dropped.
+ * This keeps the memory bounded, but the forced tags can differ from the tags of the exact search.
+ */
+public class online_viberti {
+
+    private final compiled_model model;
+    private final int numOfTags;
+    private final int unknownWordId;
+    private final double[][] logTransitions;
+    private final int[] candidateOffsets;
+    private final int[] candidateTags;
+
+    // Ring of the lattice, each word is a column of numOfTags cells at its slot
+    private final int window;
+    private final viberti_workspace workspace = new viberti_workspace();
+
+    // Words of the sentence which are decoded but not committed, at the slots from first on,
+    // and the slot of the last decoded word
+    private long length;
+    private int first, numOfPendingWords, last;
+
+    // Tags committed by the last call of push or finish
+    private final int[] committedTags;
+    private int numOfCommittedTags;
+
+    // Candidates on the paths which are traced back, and the marks of the candidates which are already on them
+    private int[] paths, previousPaths;
+    private final boolean[] marks;
+
+    // Metrics of the sentence
+    private int numOfUnknownWords;
+    private long start;
+
+    public online_viberti(compiled_model model, int window){
+        if(window < 2)
+            throw new IllegalArgumentException("Window of the online decoding must be at least 2 words.");
+        if(model.getOrder() != 2 || model.isBeamSearch())
+            throw new IllegalArgumentException("Online decoding is only the exact search of the bigram model.");
+
+        this.model = model;
+        this.numOfTags = model.getNumOfTags();
+        this.unknownWordId = model.getVocabulary().size();
+        this.logTransitions = model.getLogTransitions();
+        this.candidateOffsets = model.getCandidateOffsets();
+        this.candidateTags = model.getCandidateTags();
+        this.window = window;
+
+        workspace.ensureCapacity(numOfTags, window);
+        committedTags = new int[window + 1];
+        paths = new int[numOfTags];
+        previousPaths = new int[numOfTags];
+        marks = new boolean[numOfTags];
+    }
+
+    // === Decode the next word ===
+    // Returns the number of the words whose tags are committed by this word
+    public int push(int wordId){
+        numOfCommittedTags = 0;
+        if(numOfPendingWords == window)
+            forceCommit();
+
+        if(length == 0) {
+            start = System.nanoTime();
+            numOfUnknownWords = 0;
+        }
+        if(wordId == unknownWordId)
+            numOfUnknownWords++;
+
+        final int N = numOfTags;
+        final double[] viberti = workspace.viberti;
+        final int slot = (length == 0) ? 0 : next(last);
+        final int offset = candidateOffsets[wordId];
+        final int numOfCandidates = candidateOffsets[wordId + 1] - offset;
+        workspace.offsets[slot] = offset;
+        workspace.lengths[slot] = numOfCandidates;
+
+        if(length == 0) {
+            for(int j = 0; j < numOfCandidates; j++)
+                viberti[j] = logTransitions[N][candidateTags[offset + j]] + model.getCandidateLogEmission(wordId, j);
+        } else {
+            model.vibertiStep(viberti, workspace.backPointer, last * N, workspace.offsets[last], workspace.lengths[last],
+                    slot * N, offset, numOfCandidates, workspace);
+        }
+
+        if(numOfPendingWords == 0) first = slot;
+        numOfPendingWords++;
+        last = slot;
+        length++;
+
+        commitConvergedPaths();
+        return numOfCommittedTags;
+    }
+
+    // === End the sentence ===
+    // Commits the remaining tags with the end tag, returns their number
+    // The decoder can then be used for the next sentence
+    public int finish(){
+        numOfCommittedTags = 0;
+        if(length == 0) return 0;
+
+        if(numOfPendingWords > 0)
+            commit(numOfPendingWords - 1, model.bestLastCandidate(workspace.viberti, last * numOfTags,
+                    workspace.offsets[last], workspace.lengths[last]));
+
+        tagger_metrics metrics = model.getMetrics();
+        if(metrics != null)
+            metrics.recordSentence((int) Math.min(length, Integer.MAX_VALUE), numOfUnknownWords, System.nanoTime() - start);
+
+        length = 0;
+        return numOfCommittedTags;
+    }
+
+    // === Committed tags ===
+    // Tag id of the i-th word committed by the last call of push or finish, the words are committed in order
+    public int getCommittedTag(int i){
+        return committedTags[i];
+    }
+    // Number of the words which are decoded but not committed
+    public int getNumOfPendingWords(){
+        return numOfPendingWords;
+    }
+
+    // === Auxiliary functions ===
+    // Commits the words up to the last word where the paths of all the candidates of the last word meet, if they do
+    // the pending words are referred by their index k, from 0 for the first one
+    private void commitConvergedPaths(){
+        final int[] backPointer = workspace.backPointer;
+
+        int k = numOfPendingWords - 1, slot = last;
+        int n = workspace.lengths[slot];
+        for(int j = 0; j < n; j++)
+            paths[j] = j;
+
+        while(n > 1 && k > 0) {
+            // the candidates of the previous word on the paths
+            final int column = slot * numOfTags;
+            int m = 0;
+            for(int i = 0; i < n; i++) {
+                int prev = backPointer[column + paths[i]];
+                if(!marks[prev]) {
+                    marks[prev] = true;
+                    previousPaths[m++] = prev;
+                }
+            }
+            for(int i = 0; i < m; i++)
+                marks[previousPaths[i]] = false;
+
+            int[] swap = paths;
+            paths = previousPaths;
+            previousPaths = swap;
+            n = m;
+            k--;
+            slot = previous(slot);
+        }
+
+        if(n == 1)
+            commit(k, paths[0]);
+    }
+    // Commits the older half of the window on the path of the best candidate of the last word,
+    // the candidates of the last word which do not continue the committed path can not be on the best path any more
+    private void forceCommit(){
+        final int N = numOfTags;
+        final double[] viberti = workspace.viberti;
+        final int[] backPointer = workspace.backPointer;
+        final int end = window / 2 - 1;
+
+        // the best candidate of the last word, and its candidate at the last committed word
+        final int lastLength = workspace.lengths[last];
+        int best = 0;
+        for(int j = 1; j < lastLength; j++)
+            if(viberti[last * N + j] > viberti[last * N + best])
+                best = j;
+        int slot = last;
+        for(int k = numOfPendingWords - 1; k > end; k--) {
+            best = backPointer[slot * N + best];
+            slot = previous(slot);
+        }
+        commit(end, best);
+
+        // the candidates which continue the committed path, from the first word after it to the last word
+        boolean[] continues = new boolean[N], previousContinues = new boolean[N];
+        previousContinues[best] = true;
+        for(int k = 0; k < numOfPendingWords; k++) {
+            final int column = slot(k) * N;
+            for(int j = 0; j < workspace.lengths[slot(k)]; j++)
+                continues[j] = previousContinues[backPointer[column + j]];
+            boolean[] swap = previousContinues;
+            previousContinues = continues;
+            continues = swap;
+        }
+        for(int j = 0; j < lastLength; j++)
+            if(!previousContinues[j])
+                viberti[last * N + j] = Double.NEGATIVE_INFINITY;
+    }
+    // Commits the pending words up to the word end, whose candidate j is on the path
+    private void commit(int end, int j){
+        int slot = slot(end);
+        for(int k = end; ; k--) {
+            committedTags[numOfCommittedTags + k] = candidateTags[workspace.offsets[slot] + j];
+            if(k == 0) break;
+            j = workspace.backPointer[slot * numOfTags + j];
+            slot = previous(slot);
+        }
+        numOfCommittedTags += end + 1;
+        numOfPendingWords -= end + 1;
+        first = slot(end + 1);
+    }
+    // Slot of the pending word k, and the slots after and before a slot
+    private int slot(int k){
+        int slot = first + k;
+        return (slot < window) ? slot : slot - window;
+    }
+    private int next(int slot){
+        return (slot + 1 < window) ? slot + 1 : 0;
+    }
+    private int previous(int slot){
+        return (slot > 0) ? slot - 1 : window - 1;
+    }
+}
@@ -20,15 +20,31 @@ public class pos_model implements Serializable{
     // For the interpolation smoothing
     // Initially they will be zero
     private double lambda1, lambda2;
+    // For the interpolation smoothing of the trigram transitions
+    private double mu1, mu2, mu3;
+    // Whether the bigram interpolation has its unigram term, which is set for the tuned smoothing parameters
+    // The untuned models divide the unigram counts in integers, so the term is 0 and their transitions stay as they were
+    private boolean unigramTransitions;
+    // Order of the HMM the saved model is decoded with by default, which is set by the tuning
+    // The models serialized before it have 0, the bigram decoding
+    private int order = 2;
 
     private final Map<String, Integer> singletonCounts;
-    private final int totalNumOfTokens;
+    private int totalNumOfTokens;
     private final Map<String, HashMap<String, Double>> transitions;
     private final Map<String, HashMap<String, Double>> observations;
+    // Trigram transition counts, the rows are the tag pairs "prev2 prev1"
+    // Models saved before the trigram transitions do not have them
+    private final Map<String, HashMap<String, Double>> trigramTransitions;
+
+    // Index-based form of the model used for decoding
+    // It is rebuilt whenever the parameters are updated
+    private transient volatile compiled_model compiled;
 
     public pos_model( Set<String> tagSpaceSet, List<String> tagSpaceList, String startTag, String endTag, String unkWordTag,
                         Map<String, HashMap<String, Double>> transitions,
                         Map<String, HashMap<String, Double>> observations,
+                        Map<String, HashMap<String, Double>> trigramTransitions,
                         Map<String, Integer> singletonCounts, int totalNumOfTokens,
                         double lambda1, double lambda2){
         this.tagSpaceSet = tagSpaceSet;
@@ -38,6 +54,7 @@ public class pos_model implements Serializable{
         this.unkWordTag = unkWordTag;
         this.transitions = transitions;
         this.observations = observations;
+        this.trigramTransitions = trigramTransitions;
         this.singletonCounts = singletonCounts;
         this.totalNumOfTokens = totalNumOfTokens;
         this.lambda1 = lambda1;
@@ -46,6 +63,9 @@ public class pos_model implements Serializable{
 
     // === To calculate transaction probability ===
     public Double getTransitionProb(String prev, String curr){
+        return getTransitionProb(prev, curr, lambda1, lambda2, unigramTransitions);
+    }
+    private double getTransitionProb(String prev, String curr, double lambda1, double lambda2, boolean unigramTransitions){
         // If the tag is not a valid POS tag, throw an excaption
         validateTag(prev);
         validateTag(curr);
@@ -62,10 +82,15 @@ public class pos_model implements Serializable{
             if(curr.equals(endTag))
                 return (double) transitions.get(prev).get(curr) / getTotalNumOfTagStatesTransactionsObserved(prev);
             else
-                return lambda1 * (singletonCounts.get(curr) / totalNumOfTokens) +
+                return lambda1 * getUnigramProb(curr, unigramTransitions) +
                         lambda2 * ((double) transitions.get(prev).get(curr) / getTotalNumOfTagStatesTransactionsObserved(prev));
         }
     }
+    // Unigram probability of the tag, or the integer quotient of the counts, i.e. 0, for the untuned models
+    private double getUnigramProb(String tag, boolean unigramTransitions){
+        return unigramTransitions ? (double) singletonCounts.get(tag) / totalNumOfTokens :
+                singletonCounts.get(tag) / totalNumOfTokens;
+    }
     // Calculates marginal count of C(t_i) for a particular tag
     public Double getTotalNumOfTagStatesTransactionsObserved(String tag){
         // get the particular tag state
@@ -78,6 +103,43 @@ public class pos_model implements Serializable{
         return ctr;
     }
 
+    // === To calculate trigram transition probability ===
+    // P(curr | prev2, prev1) = mu1 * P(curr) + mu2 * P(curr | prev1) + mu3 * P(curr | prev2, prev1)
+    // the end tag has no unigram probability, so only the bigram and trigram terms are used for it
+    public Double getTrigramTransitionProb(String prev2, String prev1, String curr){
+        // If the tag is not a valid POS tag, throw an excaption
+        validateTag(prev2);
+        validateTag(prev1);
+        validateTag(curr);
+
+        double bigramProb = (double) transitions.get(prev1).get(curr) / getTotalNumOfTagStatesTransactionsObserved(prev1);
+        double trigramProb = getTrigramProb(prev2, prev1, curr, getTotalNumOfTrigramTransitionsObserved(prev2, prev1));
+        return interpolateTrigram(curr, bigramProb, trigramProb, mu1, mu2, mu3);
+    }
+    // Calculates marginal count of C(t_i-2, t_i-1)
+    private double getTotalNumOfTrigramTransitionsObserved(String prev2, String prev1){
+        HashMap<String, Double> row = trigramTransitions.get(prev2 + " " + prev1);
+        double ctr = 0;
+        if(row != null)
+            for(Map.Entry<String, Double> e : row.entrySet())
+                ctr += e.getValue();
+        return ctr;
+    }
+    private double getTrigramProb(String prev2, String prev1, String curr, double totalNumOfTrigramTransitions){
+        HashMap<String, Double> row = trigramTransitions.get(prev2 + " " + prev1);
+        if(row == null || !row.containsKey(curr)) return 0.0;
+        return row.get(curr) / totalNumOfTrigramTransitions;
+    }
+    private double interpolateTrigram(String curr, double bigramProb, double trigramProb, double mu1, double mu2, double mu3){
+        if(curr.equals(endTag))
+            return (mu2 + mu3 == 0.0) ? bigramProb : (mu2 * bigramProb + mu3 * trigramProb) / (mu2 + mu3);
+        else
+            return mu1 * ((double) singletonCounts.get(curr) / totalNumOfTokens) + mu2 * bigramProb + mu3 * trigramProb;
+    }
+    public boolean hasTrigramTransitions(){
+        return trigramTransitions != null && mu1 + mu2 + mu3 > 0.0;
+    }
+
     // === To calculate emission probability ===
     public Double getEmissionProb(String word, String tag){
         // If the tag is not a valid POS tag, throw an excaption
@@ -106,73 +168,236 @@ public class pos_model implements Serializable{
     public void laplaceSmoothingWithUnknownWordTagForObservations(String tagForUnknownWords, double B){
         for(Map.Entry<String,HashMap<String, Double>> e : observations.entrySet())
             e.getValue().put(tagForUnknownWords, B);
+        compiled = null;
     }
     public void interpolationSmoothingForTransitions(double lambda1, double lambda2){
         this.lambda1 = lambda1;
         this.lambda2 = lambda2;
+        compiled = null;
+    }
+    public void interpolationSmoothingForTrigramTransitions(double mu1, double mu2, double mu3){
+        this.mu1 = mu1;
+        this.mu2 = mu2;
+        this.mu3 = mu3;
+        compiled = null;
+    }
+    public void unigramTermForTransitions(boolean unigramTransitions){
+        this.unigramTransitions = unigramTransitions;
+        compiled = null;
+    }
+    public boolean hasUnigramTermForTransitions(){
+        return unigramTransitions;
+    }
+    public void setOrder(int order){
+        if(order != 2 && order != 3)
+            throw new IllegalArgumentException("Order of the HMM must be 2 or 3.");
+        if(order == 3 && !hasTrigramTransitions())
+            throw new IllegalArgumentException("The model has no trigram transitions.");
+        this.order = order;
+    }
+    public int getOrder(){
+        return (order == 0) ? 2 : order;
     }
 
-    // === Calculate the best path for a sequence of words ===
-    // Determine the best path by using Viberti algorithm
-    public String[] viberti(String[] words){
-        // In order to follow the pseudo code convention
-        // we define N which is the different number of states
-        // alse T which is the number of observations in the given word sequence
+    // === Incremental update ===
+    // Adds the counts of new training data to the counts of the model,
+    // the probabilities are derived from the updated counts by the next compilation
+    // The smoothing parameters are kept, the unknown word counts are not changed
+    public synchronized void addCounts(training_counts counts){
+        training_counts.addRows(transitions, counts.getTransitions());
+        training_counts.addRows(observations, counts.getObservations());
+        if(trigramTransitions != null)
+            training_counts.addRows(trigramTransitions, counts.getTrigramTransitions());
+        for(Map.Entry<String, Integer> e : counts.getSingletonTagCount().entrySet())
+            singletonCounts.put(e.getKey(), singletonCounts.get(e.getKey()) + e.getValue());
+        totalNumOfTokens += counts.getTotalNumOfTokens();
+
+        compiled = null;
+    }
+
+    // === Getters of the counts and the parameters, only for the model file ===
+    String getStartTag(){
+        return startTag;
+    }
+    String getEndTag(){
+        return endTag;
+    }
+    String getUnkWordTag(){
+        return unkWordTag;
+    }
+    List<String> getTagSpaceList(){
+        return tagSpaceList;
+    }
+    Map<String, HashMap<String, Double>> getTransitions(){
+        return transitions;
+    }
+    Map<String, HashMap<String, Double>> getObservations(){
+        return observations;
+    }
+    Map<String, HashMap<String, Double>> getTrigramTransitions(){
+        return trigramTransitions;
+    }
+    Map<String, Integer> getSingletonCounts(){
+        return singletonCounts;
+    }
+    int getTotalNumOfTokens(){
+        return totalNumOfTokens;
+    }
+    double[] getInterpolationParameters(){
+        return new double[]{lambda1, lambda2, mu1, mu2, mu3};
+    }
+
+    // === Compile the model into its index-based form ===
+    public compiled_model compile(){
+        compiled_model c = compiled;
+        if(c == null) {
+            synchronized (this) {
+                c = compiled;
+                if (c == null)
+                    compiled = c = createCompiledModel();
+            }
+        }
+        return c;
+    }
+    private compiled_model createCompiledModel(){
         final int N = tagSpaceList.size();
-        final int T = words.length;
 
-        Double[][] viberti = new Double[N + 1][T];
-        Integer[][] backPointer = new Integer[N + 1][T];
+        // emission denominators and the log-probabilities of the unknown words
+        double[] emissionDenominators = new double[N];
+        double[] logUnknownEmissions = new double[N];
+        for(int s = 0; s < N; s++) {
+            HashMap<String, Double> tagState = observations.get(tagSpaceList.get(s));
+            emissionDenominators[s] = getTotalNumOfWordsObserved(tagSpaceList.get(s));
+            logUnknownEmissions[s] = (!tagState.containsKey(unkWordTag)) ? Double.NEGATIVE_INFINITY :
+                    Math.log(tagState.get(unkWordTag) / emissionDenominators[s]);
+        }
 
-        // initialization step
+        // vocabulary of the known words and the number of tags of each word
+        vocabulary vocabulary = new vocabulary();
+        int[] numOfCandidates = new int[16];
         for(int s = 0; s < N; s++)
-            viberti[s][0] = Math.log(getTransitionProb(startTag, tagSpaceList.get(s))) +
-                    Math.log(getEmissionProb(words[0], tagSpaceList.get(s)));
-
-        // recursion step
-        for(int t = 1; t < T; t++)
-            for(int s = 0; s < N; s++){
-                double[] logProbSoFar = getVibertiMaxLogProbSoFar(viberti, s, t, false);
-                viberti[s][t] = logProbSoFar[0]+ Math.log(getEmissionProb(words[t], tagSpaceList.get(s)));
-                backPointer[s][t - 1] = (int)logProbSoFar[1];
+            for(String word : observations.get(tagSpaceList.get(s)).keySet()) {
+                int w = vocabulary.add(word);
+                if(w == numOfCandidates.length)
+                    numOfCandidates = Arrays.copyOf(numOfCandidates, 2 * w);
+                numOfCandidates[w]++;
             }
 
-        // termination step
-        viberti[N][T - 1] = getVibertiMaxLogProbSoFar(viberti, -1, T - 1, true)[0];
-        backPointer[N][T - 1] = (int)getVibertiMaxLogProbSoFar(viberti, -1, T - 1, true)[1];
+        // tag dictionary, the unknown word V can be tagged with any tag
+        final int V = vocabulary.size();
+        int[] candidateOffsets = new int[V + 2];
+        for(int w = 0; w < V; w++)
+            candidateOffsets[w + 1] = candidateOffsets[w] + numOfCandidates[w];
+        candidateOffsets[V + 1] = candidateOffsets[V] + N;
+
+        // tags are visited in increasing order, so the candidate tags of each word are sorted
+        int[] candidateTags = new int[candidateOffsets[V + 1]];
+        double[] candidateLogEmissions = new double[candidateOffsets[V + 1]];
+        int[] next = Arrays.copyOf(candidateOffsets, V + 1);
+        for(int s = 0; s < N; s++) {
+            for (Map.Entry<String, Double> e : observations.get(tagSpaceList.get(s)).entrySet()) {
+                int j = next[vocabulary.getId(e.getKey())]++;
+                candidateTags[j] = s;
+                candidateLogEmissions[j] = Math.log(e.getValue() / emissionDenominators[s]);
+            }
+            candidateTags[candidateOffsets[V] + s] = s;
+            candidateLogEmissions[candidateOffsets[V] + s] = logUnknownEmissions[s];
+        }
 
-        // backtracing the path
-        return backTracing(backPointer, N, T);
+        return new compiled_model(tagSpaceList, createLogTransitions(lambda1, lambda2, unigramTransitions),
+                createLogTrigramTransitions(mu1, mu2, mu3),
+                emissionDenominators, vocabulary, candidateOffsets, candidateTags, candidateLogEmissions);
     }
-    private double[] getVibertiMaxLogProbSoFar(Double[][] viberti, int stateIndex, int observationIndex, boolean endState){
-        int maxProbIndex = 0;
-        Double maxProb = (!endState) ? viberti[maxProbIndex][observationIndex - 1] + Math.log(getTransitionProb(tagSpaceList.get(maxProbIndex), tagSpaceList.get(stateIndex))) :
-                                    viberti[maxProbIndex][observationIndex] + Math.log(getTransitionProb(tagSpaceList.get(maxProbIndex), endTag));
+    // Transition log-probabilities, the start tag is the row N and the end tag is the column N
+    private double[][] createLogTransitions(double lambda1, double lambda2, boolean unigramTransitions){
+        final int N = tagSpaceList.size();
 
+        double[][] logTransitions = new double[N + 1][N + 1];
+        for(int i = 0; i < N; i++) {
+            for (int j = 0; j < N; j++)
+                logTransitions[i][j] = Math.log(getTransitionProb(tagSpaceList.get(i), tagSpaceList.get(j), lambda1, lambda2,
+                        unigramTransitions));
+            logTransitions[i][N] = Math.log(getTransitionProb(tagSpaceList.get(i), endTag, lambda1, lambda2, unigramTransitions));
+            logTransitions[N][i] = Math.log(getTransitionProb(startTag, tagSpaceList.get(i), lambda1, lambda2, unigramTransitions));
+        }
+        logTransitions[N][N] = Double.NEGATIVE_INFINITY;
+        return logTransitions;
+    }
+    // Trigram transition log-probabilities, or null if the model has no trigram transitions
+    // the start tag is the tag N of prev2 and prev1, the end tag is the tag N of curr
+    private double[] createLogTrigramTransitions(double mu1, double mu2, double mu3){
+        if(trigramTransitions == null || !(mu1 + mu2 + mu3 > 0.0)) return null;
 
-        // -1 is for extra space due to the starting and ending states
-        for(int i = 1; i < viberti.length - 1; i++){
-            Double currProb = (!endState) ? viberti[i][observationIndex - 1] + Math.log(getTransitionProb(tagSpaceList.get(i), tagSpaceList.get(stateIndex))) :
-                                        viberti[i][observationIndex] + Math.log(getTransitionProb(tagSpaceList.get(i), endTag));
+        final int N = tagSpaceList.size();
+        final int M = N + 1;
+        List<String> tags = new ArrayList<>(tagSpaceList);
+        tags.add(startTag);
 
-            if (currProb > maxProb) {
-                maxProbIndex = i;
-                maxProb = currProb;
-            }
+        // bigram probabilities, the start tag can not be followed by the end tag
+        // and the tags which are not observed in the training data have no bigram probabilities
+        double[][] bigramProbs = new double[M][M];
+        for(int i = 0; i < M; i++) {
+            double total = getTotalNumOfTagStatesTransactionsObserved(tags.get(i));
+            for (int j = 0; j < M; j++)
+                bigramProbs[i][j] = (total == 0 || (i == N && j == N)) ? 0.0 :
+                        transitions.get(tags.get(i)).get((j == N) ? endTag : tags.get(j)) / total;
         }
 
-        return new double[]{maxProb, (double) maxProbIndex};
+        double[] logTrigramTransitions = new double[M * M * M];
+        Arrays.fill(logTrigramTransitions, Double.NEGATIVE_INFINITY);
+        for(int k = 0; k < M; k++)
+            for(int i = 0; i < M; i++) {
+                // a tag can not be followed by the start tag
+                if(k != N && i == N) continue;
+
+                double total = getTotalNumOfTrigramTransitionsObserved(tags.get(k), tags.get(i));
+                for (int j = 0; j < M; j++) {
+                    String curr = (j == N) ? endTag : tags.get(j);
+                    double trigramProb = getTrigramProb(tags.get(k), tags.get(i), curr, total);
+                    logTrigramTransitions[(k * M + i) * M + j] = Math.log(interpolateTrigram(curr, bigramProbs[i][j], trigramProb, mu1, mu2, mu3));
+                }
+            }
+        return logTrigramTransitions;
     }
-    private String[] backTracing(Integer[][] backPointerArray, final int N, final int T){
-        String[] tags = new String[T];
-        int backPointer = backPointerArray[N][T - 1];
 
-        for(int t = T - 1; t >= 0; t--) {
-            tags[t] = tagSpaceList.get(backPointer);
-            backPointer = (t >= 1) ? backPointerArray[backPointer][t - 1] : 0;
+    // === Compile the model with other smoothing parameters ===
+    // The model is compiled as if the unknown word tag was counted unknownWordCount times for each tag
+    // which has it, and with the given interpolation parameters, but the model itself is not changed.
+    // The bigram interpolation has its unigram term, as the model has once the tuned parameters are set.
+    // The vocabulary and the tag dictionary do not depend on these parameters,
+    // so they are shared with the compiled model of this model and only the probabilities are computed again.
+    public compiled_model compile(double unknownWordCount, double lambda1, double lambda2, double mu1, double mu2, double mu3){
+        final compiled_model c = compile();
+        final int N = tagSpaceList.size();
+        final vocabulary vocabulary = c.getVocabulary();
+        final int[] candidateOffsets = c.getCandidateOffsets();
+        final int V = vocabulary.size();
+
+        // the counts are visited in the same order as by the compilation of this model
+        double[] emissionDenominators = new double[N];
+        double[] candidateLogEmissions = new double[candidateOffsets[V + 1]];
+        int[] next = Arrays.copyOf(candidateOffsets, V + 1);
+        for(int s = 0; s < N; s++) {
+            HashMap<String, Double> tagState = observations.get(tagSpaceList.get(s));
+            for(Map.Entry<String, Double> e : tagState.entrySet())
+                emissionDenominators[s] += e.getKey().equals(unkWordTag) ? unknownWordCount : e.getValue();
+            for(Map.Entry<String, Double> e : tagState.entrySet()) {
+                double count = e.getKey().equals(unkWordTag) ? unknownWordCount : e.getValue();
+                candidateLogEmissions[next[vocabulary.getId(e.getKey())]++] = Math.log(count / emissionDenominators[s]);
+            }
+            candidateLogEmissions[candidateOffsets[V] + s] = (!tagState.containsKey(unkWordTag)) ? Double.NEGATIVE_INFINITY :
+                    Math.log(unknownWordCount / emissionDenominators[s]);
         }
 
-        return tags;
+        return new compiled_model(tagSpaceList, createLogTransitions(lambda1, lambda2, true), createLogTrigramTransitions(mu1, mu2, mu3),
+                emissionDenominators, vocabulary, candidateOffsets, c.getCandidateTags(), candidateLogEmissions);
+    }
+
+    // === Calculate the best path for a sequence of words ===
+    // Determine the best path by using Viberti algorithm on the compiled model
+    public String[] viberti(String[] words){
+        compiled_model c = compile();
+        return c.toTags(c.viberti(words));
     }
 
     // === Check the validation of a POS PENN Treebank tag ===
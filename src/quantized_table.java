@@ -0,0 +1,95 @@
+/**
+ * Log-probabilities packed in a smaller precision, for the quantized compiled models.
+ *
+ * A table of the precision FLOAT keeps the values as floats. A table of the precision FIXED16 keeps them as 16-bit
+ * fixed point codes with a scale for each group of the values, e.g. the tag of the emissions: the value v of the group g
+ * is stored as round(v / scales[g]), so the largest absolute value of each group uses the whole range of the codes.
+ * The code Short.MIN_VALUE is -inf, the log-probability of the impossible events, and it is unpacked exactly.
+ */
+public class quantized_table {
+
+    // Precisions, in bits of a value
+    public static final int FULL = 64;
+    public static final int FLOAT = 32;
+    public static final int FIXED16 = 16;
+
+    private static final short NEGATIVE_INFINITY_CODE = Short.MIN_VALUE;
+    private static final int MAX_CODE = Short.MAX_VALUE;
+
+    private final int precision;
+    private final float[] floats;
+    private final short[] codes;
+    private final double[] scales;
+
+    // Packs the values, the value i is in the group groups[i] of [0, numOfGroups)
+    public quantized_table(double[] values, int[] groups, int numOfGroups, int precision){
+        this.precision = precision;
+        if(precision == FLOAT) {
+            floats = new float[values.length];
+            for(int i = 0; i < values.length; i++)
+                floats[i] = (float) values[i];
+            codes = null;
+            scales = null;
+        } else if(precision == FIXED16) {
+            // the largest absolute value of each group is the code MAX_CODE
+            scales = new double[numOfGroups];
+            for(int i = 0; i < values.length; i++) {
+                if(values[i] == Double.NEGATIVE_INFINITY) continue;
+                if(Double.isNaN(values[i]) || Double.isInfinite(values[i]))
+                    throw new IllegalArgumentException("Log-probability " + values[i] + " can not be packed in 16 bits.");
+                scales[groups[i]] = Math.max(scales[groups[i]], Math.abs(values[i]));
+            }
+            for(int g = 0; g < numOfGroups; g++)
+                scales[g] = (scales[g] == 0.0) ? 1.0 : scales[g] / MAX_CODE;
+
+            codes = new short[values.length];
+            for(int i = 0; i < values.length; i++)
+                codes[i] = (values[i] == Double.NEGATIVE_INFINITY) ? NEGATIVE_INFINITY_CODE :
+                        (short) Math.round(values[i] / scales[groups[i]]);
+            floats = null;
+        } else
+            throw new IllegalArgumentException("Precision of a quantized table must be " + FLOAT + " or " + FIXED16 + " bits.");
+    }
+    // Table read from a model file
+    quantized_table(float[] floats){
+        this.precision = FLOAT;
+        this.floats = floats;
+        this.codes = null;
+        this.scales = null;
+    }
+    quantized_table(short[] codes, double[] scales){
+        this.precision = FIXED16;
+        this.floats = null;
+        this.codes = codes;
+        this.scales = scales;
+    }
+
+    // === Values ===
+    // Unpacks the value i of the group
+    public double get(int i, int group){
+        if(floats != null) return floats[i];
+        final short code = codes[i];
+        return (code == NEGATIVE_INFINITY_CODE) ? Double.NEGATIVE_INFINITY : code * scales[group];
+    }
+    public int size(){
+        return (floats != null) ? floats.length : codes.length;
+    }
+    public int getPrecision(){
+        return precision;
+    }
+    // Bytes of the packed arrays
+    public long getSizeInBytes(){
+        return (floats != null) ? 4L * floats.length : 2L * codes.length + 8L * scales.length;
+    }
+
+    // Packed arrays, only for the model file
+    float[] getFloats(){
+        return floats;
+    }
+    short[] getCodes(){
+        return codes;
+    }
+    double[] getScales(){
+        return scales;
+    }
+}
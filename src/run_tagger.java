@@ -1,25 +1,94 @@
 import java.io.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
 
 /**
  * Ahmet Alparslan Celik
  * Student ID: A0152801R
  */
 public class run_tagger {
-    // Files
-    private static File testFile, modelFile, outputFile;
+    // Files, the test and the output files can also be "-" for the standard input and output
+    private static String testFile, outputFile;
+    private static File modelFile;
 
-    // HMM POS model
-    private static pos_model model;
+    // Parallel tagging
+    // number of lines tagged together by a worker,
+    // and the number of batches that can wait between the stages per thread
+    private static final int BATCH_SIZE = 64;
+    private static final int QUEUED_BATCHES_PER_THREAD = 4;
+    private static int numOfThreads = 1;
+
+    // Beam width of the decoding, 0 is the exact search
+    private static int beamWidth = 0;
+
+    // Order of the HMM, 3 decodes with the trigram transitions of the model
+    // 0 decodes with the order the model is saved with, which is 3 if the tuning has chosen the trigrams
+    private static int order = 0;
+
+    // Online decoding of lines of any length, whose memory is bounded by a window of words
+    // disabled by default, the whole line is then decoded at once
+    private static final String WINDOW_OPTION = "--window=";
+    private static int window = 0;
+
+    // Cache of the tagged sentences, disabled if neither of its limits is given
+    private static final String CACHE_OPTION = "--cache=";
+    private static final String CACHE_MB_OPTION = "--cache-mb=";
+    private static int cacheEntries = 0;
+    private static long cacheBytes = 0;
+
+    // Runtime metrics, always recorded
+    // exposed through JMX with the jmx option, and printed periodically if an interval is given
+    private static final String JMX_OPTION = "--jmx";
+    private static final String METRICS_OPTION = "--metrics-interval=";
+    private static final tagger_metrics metrics = new tagger_metrics();
+    private static boolean jmx = false;
+    private static int metricsInterval = 0;
+
+    // HMM POS model in its index-based form
+    private static compiled_model model;
 
     public static void main(String[] args){
         // Initialization
         initialize(args);
 
+        // Metrics
+        if(jmx)
+            metrics.register();
+        if(metricsInterval > 0)
+            metrics.startLogging(metricsInterval, TimeUnit.SECONDS);
+
         // Model Loading
         loadHMMModel();
+        model.setMetrics(metrics);
+        model.setBeam(beamWidth, Double.POSITIVE_INFINITY);
+        if(order == 3 && !model.hasTrigramTransitions()) {
+            System.err.println("'" + modelFile + "' has no trigram transitions!");
+            System.exit(1);
+        }
+        if(order != 0)
+            model.setOrder(order);
+        if(window > 0 && model.getOrder() == 3) {
+            System.err.println("'" + modelFile + "' is saved with the trigram decoding, the online decoding needs the hmm_order 2!");
+            System.exit(1);
+        }
+        if(cacheEntries > 0 || cacheBytes > 0)
+            model.setCache(new sentence_cache(cacheEntries > 0 ? cacheEntries : Integer.MAX_VALUE,
+                    cacheBytes > 0 ? cacheBytes : Long.MAX_VALUE));
 
         // Run the model on the test data
-        runModelOnTestData();
+        if(numOfThreads > 1)
+            runModelOnTestDataInParallel();
+        else
+            runModelOnTestData();
+
+        // Metrics and cache statistics
+        if(metricsInterval > 0)
+            System.err.println("[metrics] " + metrics.summary());
+        sentence_cache cache = model.getCache();
+        if(cache != null)
+            System.err.println("Cache hits: " + cache.getHits() + ", misses: " + cache.getMisses()
+                    + ", cached sentences: " + cache.size());
     }
 
     // == Parameter initialization ==
@@ -29,57 +98,225 @@ public class run_tagger {
 
     }
     public static void argumentCheck(String[] args){
-        if(args.length != 3) {
-            System.err.println("usage: java build_tagger <sents.test> <model_file> <sents.out>");
+        // the options can be anywhere, the other arguments are positional
+        List<String> positional = new ArrayList<>();
+        for(String arg : args) {
+            if(arg.startsWith(CACHE_OPTION))
+                cacheEntries = parseOptionValue(arg, CACHE_OPTION, "cache limit");
+            else if(arg.startsWith(CACHE_MB_OPTION))
+                cacheBytes = parseOptionValue(arg, CACHE_MB_OPTION, "cache limit") * (1L << 20);
+            else if(arg.equals(JMX_OPTION))
+                jmx = true;
+            else if(arg.startsWith(METRICS_OPTION))
+                metricsInterval = parseOptionValue(arg, METRICS_OPTION, "metrics interval");
+            else if(arg.startsWith(WINDOW_OPTION))
+                window = parseOptionValue(arg, WINDOW_OPTION, "window");
+            else
+                positional.add(arg);
+        }
+        args = positional.toArray(new String[0]);
+
+        if(args.length < 3 || args.length > 6) {
+            System.err.println("usage: java run_tagger <sents.test|-> <model_file> <sents.out|-> [num_of_threads [beam_width [hmm_order]]]"
+                    + " [" + CACHE_OPTION + "max_sentences] [" + CACHE_MB_OPTION + "max_megabytes] [" + JMX_OPTION + "] [" + METRICS_OPTION + "seconds]"
+                    + " [" + WINDOW_OPTION + "words]");
             System.exit(1);
         }
 
-        testFile = new File(args[0]);
+        testFile = args[0];
         modelFile = new File(args[1]);
-        outputFile = new File(args[2]);
+        outputFile = args[2];
+
+        if(args.length >= 4) {
+            try {
+                numOfThreads = Integer.parseInt(args[3]);
+            } catch (NumberFormatException e) {
+                numOfThreads = 0;
+            }
+            if(numOfThreads < 1) {
+                System.err.println("'" + args[3] + "' is not a valid number of threads!");
+                System.exit(1);
+            }
+        }
+        if(args.length >= 5) {
+            try {
+                beamWidth = Integer.parseInt(args[4]);
+            } catch (NumberFormatException e) {
+                beamWidth = -1;
+            }
+            if(beamWidth < 0) {
+                System.err.println("'" + args[4] + "' is not a valid beam width!");
+                System.exit(1);
+            }
+        }
+        if(args.length == 6) {
+            if(args[5].equals("2") || args[5].equals("3"))
+                order = Integer.parseInt(args[5]);
+            else {
+                System.err.println("'" + args[5] + "' is not a valid HMM order, it must be 2 or 3!");
+                System.exit(1);
+            }
+        }
+        if(window > 0 && (numOfThreads > 1 || beamWidth > 0 || order == 3)) {
+            System.err.println("The online decoding is only single-threaded, with the exact search of the bigram model!");
+            System.exit(1);
+        }
+        if(window == 1) {
+            System.err.println("'" + WINDOW_OPTION + window + "' is not a valid window, it must be at least 2 words!");
+            System.exit(1);
+        }
+    }
+
+    // Returns the positive value of an option
+    private static int parseOptionValue(String arg, String option, String name){
+        int value;
+        try {
+            value = Integer.parseInt(arg.substring(option.length()));
+        } catch (NumberFormatException e) {
+            value = 0;
+        }
+        if(value < 1) {
+            System.err.println("'" + arg + "' is not a valid " + name + "!");
+            System.exit(1);
+        }
+        return value;
     }
 
     // == Load the HMM model ==
+    // Binary model files are memory-mapped, the serialized models of the old format are compiled after loading
     public static void loadHMMModel() {
         try {
-            FileInputStream fs = new FileInputStream(modelFile);
-            ObjectInputStream os = new ObjectInputStream(fs);
-            try {
-                model = (pos_model) os.readObject();
-            } finally {
-                os.close();
-                fs.close();
-            }
+            long start = System.nanoTime();
+            model = loadHMMModel(modelFile);
+            metrics.recordModelLoad(System.nanoTime() - start);
         } catch(IOException e) {
             e.printStackTrace();
         } catch(ClassNotFoundException e) {
             e.printStackTrace();
         }
     }
+    public static compiled_model loadHMMModel(File file) throws IOException, ClassNotFoundException {
+        if(binary_model.isBinaryModel(file))
+            return binary_model.load(file);
+        else
+            return loadSerializedHMMModel(file).compile();
+    }
+    public static pos_model loadSerializedHMMModel(File file) throws IOException, ClassNotFoundException {
+        FileInputStream fs = new FileInputStream(file);
+        ObjectInputStream os = new ObjectInputStream(fs);
+        try {
+            return (pos_model) os.readObject();
+        } finally {
+            os.close();
+            fs.close();
+        }
+    }
 
     // == Run the model on the test data ==
+    // Plain files are tagged at the byte level, the standard streams and the compressed files as text
+    // With a window, the lines are tagged word by word by the online decoding
     public static void runModelOnTestData() {
         try {
-            BufferedReader r = new BufferedReader(new FileReader(testFile));
-            BufferedWriter w = new BufferedWriter(new FileWriter(outputFile));
+            if(window == 0 && tagging_stream.isPlainFile(testFile) && !outputFile.equals(tagging_stream.STANDARD_STREAM) && !outputFile.endsWith(".gz")) {
+                tagging_stream.tag(model, new File(testFile), new FileOutputStream(outputFile).getChannel());
+                return;
+            }
+
+            BufferedReader r = tagging_stream.openReader(testFile);
+            BufferedWriter w = tagging_stream.openWriter(outputFile);
             try {
-                String line;
-                while(( line = r.readLine() ) != null) {
-                    String[] words = line.split(" ");
-                    String[] predictedTags = model.viberti(words);
-
-                    // write the results to the output file
-                    for (int i = 0; i < words.length; i++)
-                        w.write(((i == 0) ? "" : " ") + words[i] + "/" + predictedTags[i]);
-                    w.newLine();
-                }
+                if(window > 0)
+                    tagging_stream.tagOnline(model, r, w, window);
+                else
+                    tagging_stream.tag(model, r, w);
             } finally {
                 r.close();
-                w.flush();
                 w.close();
             }
         } catch(IOException e) {
             e.printStackTrace();
         }
     }
+
+    // == Run the model on the test data with multiple threads ==
+    // The reader thread reads batches of lines and submits them to the workers,
+    // the current thread writes the tagged batches in the order they are read.
+    // The queue between the reader and the writer is bounded, so is the memory.
+    public static void runModelOnTestDataInParallel() {
+        final ExecutorService workers = Executors.newFixedThreadPool(numOfThreads);
+        final BlockingQueue<Future<String>> batches = new ArrayBlockingQueue<>(QUEUED_BATCHES_PER_THREAD * numOfThreads);
+        final Future<String> endOfInput = new FutureTask<>(new Callable<String>() {
+            @Override
+            public String call() {
+                return null;
+            }
+        });
+
+        Thread reader = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    BufferedReader r = tagging_stream.openReader(testFile);
+                    try {
+                        List<String> lines = new ArrayList<>(BATCH_SIZE);
+                        String line;
+                        while ((line = r.readLine()) != null) {
+                            lines.add(line);
+                            if (lines.size() == BATCH_SIZE) {
+                                batches.put(submitBatch(workers, lines));
+                                lines = new ArrayList<>(BATCH_SIZE);
+                            }
+                        }
+                        if (!lines.isEmpty())
+                            batches.put(submitBatch(workers, lines));
+                    } finally {
+                        r.close();
+                    }
+                } catch (IOException e) {
+                    e.printStackTrace();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    try {
+                        batches.put(endOfInput);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            }
+        }, "run_tagger-reader");
+        reader.start();
+
+        try {
+            BufferedWriter w = tagging_stream.openWriter(outputFile);
+            try {
+                Future<String> batch;
+                while ((batch = batches.take()) != endOfInput)
+                    w.write(batch.get());
+            } finally {
+                w.flush();
+                w.close();
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        } catch (ExecutionException e) {
+            e.printStackTrace();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            reader.interrupt();
+            workers.shutdownNow();
+        }
+    }
+    private static Future<String> submitBatch(ExecutorService workers, final List<String> lines){
+        return workers.submit(new Callable<String>() {
+            @Override
+            public String call() {
+                StringBuilder sb = new StringBuilder();
+                for (String line : lines)
+                    sb.append(tagging_stream.tagLine(model, line)).append(System.lineSeparator());
+                return sb.toString();
+            }
+        });
+    }
 }
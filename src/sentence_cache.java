@@ -0,0 +1,116 @@
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded LRU cache of the decoded tags of sentences.
+ * A sentence is keyed by the word ids the decoder sees, so all the unknown words are the same
+ * and the cached tags are exactly the tags a fresh decoding would find.
+ * The cache is limited by the number of sentences and by an estimate of its size in bytes,
+ * and the least recently used sentences are evicted first.
+ */
+public class sentence_cache {
+
+    // Estimated bytes of an entry besides its arrays: the entry, the key and the array headers
+    private static final long ENTRY_OVERHEAD = 96;
+
+    private final int maxEntries;
+    private final long maxBytes;
+
+    // Sentences in access order, guarded by the cache itself
+    private final LinkedHashMap<Key, int[]> entries;
+    private long bytes;
+
+    // Statistics
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    public sentence_cache(int maxEntries, long maxBytes){
+        if(maxEntries < 1 || maxBytes < 1)
+            throw new IllegalArgumentException("Cache limits must be positive.");
+
+        this.maxEntries = maxEntries;
+        this.maxBytes = maxBytes;
+        this.entries = new LinkedHashMap<>(16, 0.75f, true);
+    }
+
+    // === Lookup ===
+    // Returns a copy of the cached tag ids of the sentence, or null if it is not cached
+    public int[] get(int[] wordIds){
+        int[] tagIds;
+        synchronized(this) {
+            tagIds = entries.get(new Key(wordIds));
+        }
+
+        if(tagIds == null) {
+            misses.incrementAndGet();
+            return null;
+        }
+        hits.incrementAndGet();
+        return tagIds.clone();
+    }
+
+    // === Insertion ===
+    // Caches a copy of the tag ids of the sentence, evicting the least recently used sentences over the limits
+    public void put(int[] wordIds, int[] tagIds){
+        Key key = new Key(wordIds.clone());
+        long size = sizeOf(wordIds.length);
+        if(size > maxBytes) return;
+
+        synchronized(this) {
+            if(entries.put(key, tagIds.clone()) == null)
+                bytes += size;
+
+            Iterator<Map.Entry<Key, int[]>> eldest = entries.entrySet().iterator();
+            while(entries.size() > maxEntries || bytes > maxBytes) {
+                bytes -= sizeOf(eldest.next().getValue().length);
+                eldest.remove();
+            }
+        }
+    }
+    public synchronized void clear(){
+        entries.clear();
+        bytes = 0;
+    }
+
+    // === Statistics ===
+    public long getHits(){
+        return hits.get();
+    }
+    public long getMisses(){
+        return misses.get();
+    }
+    public synchronized int size(){
+        return entries.size();
+    }
+    public synchronized long getBytes(){
+        return bytes;
+    }
+
+    // === Auxiliary functions ===
+    private static long sizeOf(int length){
+        return ENTRY_OVERHEAD + 8L * length;
+    }
+
+    // Word ids of a sentence with their hash code
+    private static final class Key {
+        private final int[] wordIds;
+        private final int hash;
+
+        Key(int[] wordIds){
+            this.wordIds = wordIds;
+            this.hash = Arrays.hashCode(wordIds);
+        }
+
+        @Override
+        public int hashCode(){
+            return hash;
+        }
+        @Override
+        public boolean equals(Object o){
+            return o instanceof Key && ((Key) o).hash == hash && Arrays.equals(((Key) o).wordIds, wordIds);
+        }
+    }
+}
@@ -0,0 +1,182 @@
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Grid search of the smoothing parameters of a pos_model on the development data.
+ * Each setting of the grid is compiled from the counts of the same trained model, which are not changed,
+ * and the development sentences are decoded with it. The settings are evaluated in parallel, one task per setting,
+ * and they are ranked by their accuracy.
+ */
+public class smoothing_search {
+
+    // Grid of the settings
+    // the unknown word counts of the Laplace smoothing, the bigram lambda1 values and the trigram mu values
+    // are tried besides the interpolation parameters found by the deleted interpolation
+    // The counts below 0.1 tag as 0.01 does, a count only changes the tags once it is not negligible next to
+    // the number of words of a tag, so the larger the training data, the larger the first count which changes them
+    private static final double[] UNKNOWN_WORD_COUNTS = {0.01, 0.1, 1.0, 10.0, 100.0, 1000.0};
+    private static final double[] LAMBDA1_VALUES = {0.1, 0.3};
+    private static final double[][] MU_VALUES = {{0.1, 0.3, 0.6}};
+
+    private final pos_model model;
+    private final int numOfThreads;
+
+    // Development sentences, the normalized words and the true tags of each sentence
+    private final String[][] words;
+    private final String[][] trueTags;
+
+    public smoothing_search(pos_model model, List<String[][]> sentences, int numOfThreads){
+        this.model = model;
+        this.numOfThreads = numOfThreads;
+        this.words = new String[sentences.size()][];
+        this.trueTags = new String[sentences.size()][];
+        for(int i = 0; i < sentences.size(); i++) {
+            words[i] = sentences.get(i)[0];
+            trueTags[i] = sentences.get(i)[1];
+        }
+    }
+
+    // === Grid ===
+    // The settings of the bigram decoding, and of the trigram decoding if the model has trigram transitions,
+    // for each unknown word count
+    // The current parameters come first, so they are kept among the settings which tie for the best accuracy
+    public static List<Setting> createGrid(double currentUnknownWordCount, double lambda1, double lambda2,
+                                           double mu1, double mu2, double mu3, boolean hasTrigramTransitions){
+        List<Double> unknownWordCounts = new ArrayList<>();
+        unknownWordCounts.add(currentUnknownWordCount);
+        for(double unknownWordCount : UNKNOWN_WORD_COUNTS)
+            if(unknownWordCount != currentUnknownWordCount)
+                unknownWordCounts.add(unknownWordCount);
+
+        List<Setting> settings = new ArrayList<>();
+        for(double unknownWordCount : unknownWordCounts) {
+            settings.add(new Setting(2, unknownWordCount, lambda1, lambda2, mu1, mu2, mu3));
+            for(double l1 : LAMBDA1_VALUES)
+                settings.add(new Setting(2, unknownWordCount, l1, 1.0 - l1, mu1, mu2, mu3));
+
+            if(!hasTrigramTransitions) continue;
+            settings.add(new Setting(3, unknownWordCount, lambda1, lambda2, mu1, mu2, mu3));
+            for(double[] mu : MU_VALUES)
+                settings.add(new Setting(3, unknownWordCount, lambda1, lambda2, mu[0], mu[1], mu[2]));
+        }
+        return settings;
+    }
+
+    // === Evaluate the settings ===
+    // Returns the settings with their accuracies, the most accurate first
+    // settings with the same accuracy keep their order in the grid
+    public List<Setting> evaluate(List<Setting> settings) throws InterruptedException, ExecutionException {
+        // the shared tables are compiled once before the tasks use them
+        model.compile();
+
+        ExecutorService workers = Executors.newFixedThreadPool(numOfThreads);
+        try {
+            List<Future<Double>> accuracies = new ArrayList<>();
+            for(final Setting setting : settings)
+                accuracies.add(workers.submit(new Callable<Double>() {
+                    @Override
+                    public Double call() {
+                        return getAccuracy(setting);
+                    }
+                }));
+
+            List<Setting> ranked = new ArrayList<>();
+            for(int i = 0; i < settings.size(); i++)
+                ranked.add(settings.get(i).withAccuracy(accuracies.get(i).get()));
+            Collections.sort(ranked, new Comparator<Setting>() {
+                @Override
+                public int compare(Setting s1, Setting s2) {
+                    return Double.compare(s2.getAccuracy(), s1.getAccuracy());
+                }
+            });
+            return ranked;
+        } finally {
+            workers.shutdown();
+        }
+    }
+    // Decodes the development sentences with the setting
+    private double getAccuracy(Setting setting){
+        compiled_model compiledModel = setting.compile(model);
+
+        int numOfTokens = 0, numOfCorrectTags = 0;
+        for(int i = 0; i < words.length; i++) {
+            String[] predictedTags = compiledModel.toTags(compiledModel.viberti(words[i]));
+            for(int j = 0; j < predictedTags.length; j++)
+                if(predictedTags[j].equals(trueTags[i][j]))
+                    numOfCorrectTags++;
+            numOfTokens += predictedTags.length;
+        }
+        return (double) numOfCorrectTags / numOfTokens;
+    }
+
+    // === Setting of the smoothing parameters ===
+    public static class Setting {
+        private final int order;
+        private final double unknownWordCount;
+        private final double lambda1, lambda2;
+        private final double mu1, mu2, mu3;
+        private final double accuracy;
+
+        public Setting(int order, double unknownWordCount, double lambda1, double lambda2, double mu1, double mu2, double mu3){
+            this(order, unknownWordCount, lambda1, lambda2, mu1, mu2, mu3, Double.NaN);
+        }
+        private Setting(int order, double unknownWordCount, double lambda1, double lambda2, double mu1, double mu2, double mu3,
+                        double accuracy){
+            this.order = order;
+            this.unknownWordCount = unknownWordCount;
+            this.lambda1 = lambda1;
+            this.lambda2 = lambda2;
+            this.mu1 = mu1;
+            this.mu2 = mu2;
+            this.mu3 = mu3;
+            this.accuracy = accuracy;
+        }
+
+        // The bigram decoding does not use the trigram transitions, so they are not compiled for it
+        compiled_model compile(pos_model model){
+            compiled_model compiledModel = (order == 3) ?
+                    model.compile(unknownWordCount, lambda1, lambda2, mu1, mu2, mu3) :
+                    model.compile(unknownWordCount, lambda1, lambda2, 0.0, 0.0, 0.0);
+            compiledModel.setOrder(order);
+            return compiledModel;
+        }
+        // Sets the smoothing parameters of the model, with the unigram term of the transitions it was compiled with,
+        // and the order of the HMM it is saved with
+        public void apply(pos_model model, String tagForUnknownWords){
+            model.laplaceSmoothingWithUnknownWordTagForObservations(tagForUnknownWords, unknownWordCount);
+            model.interpolationSmoothingForTransitions(lambda1, lambda2);
+            model.interpolationSmoothingForTrigramTransitions(mu1, mu2, mu3);
+            model.unigramTermForTransitions(true);
+            model.setOrder(order);
+        }
+        private Setting withAccuracy(double accuracy){
+            return new Setting(order, unknownWordCount, lambda1, lambda2, mu1, mu2, mu3, accuracy);
+        }
+
+        // === Getters ===
+        public int getOrder(){
+            return order;
+        }
+        public double getUnknownWordCount(){
+            return unknownWordCount;
+        }
+        public double getLambda1(){
+            return lambda1;
+        }
+        public double getLambda2(){
+            return lambda2;
+        }
+        public double getMu1(){
+            return mu1;
+        }
+        public double getMu2(){
+            return mu2;
+        }
+        public double getMu3(){
+            return mu3;
+        }
+        public double getAccuracy(){
+            return accuracy;
+        }
+    }
+}
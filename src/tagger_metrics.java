@@ -0,0 +1,204 @@
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Runtime metrics of the tagging.
+ * The decoding of each sentence adds its number of tokens, its unknown words and its latency,
+ * the latencies are kept in log-linear histograms for the sentence lengths 1-8, 9-16, 17-32, 33-64 and 65+.
+ * Recording only increments counters, so the metrics can be left on all the time.
+ *
+ * The metrics are exposed as the JMX MBean "postagger:type=tagger_metrics",
+ * and can also be printed periodically on the standard error.
+ */
+public class tagger_metrics implements tagger_metricsMBean {
+
+    public static final String OBJECT_NAME = "postagger:type=tagger_metrics";
+
+    // Sentence lengths of the histograms, the last one has no upper limit
+    private static final int[] LENGTH_BUCKETS = {8, 16, 32, 64, Integer.MAX_VALUE};
+
+    private final LongAdder sentences = new LongAdder();
+    private final LongAdder tokens = new LongAdder();
+    private final LongAdder unknownTokens = new LongAdder();
+    private final AtomicLong modelLoadNanos = new AtomicLong();
+    private volatile long startTime = System.nanoTime();
+
+    private final Histogram[] latencies = new Histogram[LENGTH_BUCKETS.length];
+    private final Histogram totalLatency = new Histogram();
+
+    public tagger_metrics(){
+        for(int i = 0; i < latencies.length; i++)
+            latencies[i] = new Histogram();
+    }
+
+    // === Recording ===
+    public void recordSentence(int numOfTokens, int numOfUnknownTokens, long nanos){
+        sentences.increment();
+        tokens.add(numOfTokens);
+        unknownTokens.add(numOfUnknownTokens);
+
+        int bucket = 0;
+        while(numOfTokens > LENGTH_BUCKETS[bucket]) bucket++;
+        latencies[bucket].record(nanos);
+        totalLatency.record(nanos);
+    }
+    public void recordModelLoad(long nanos){
+        modelLoadNanos.set(nanos);
+    }
+
+    // === Attributes ===
+    public long getSentences(){
+        return sentences.sum();
+    }
+    public long getTokens(){
+        return tokens.sum();
+    }
+    public long getUnknownTokens(){
+        return unknownTokens.sum();
+    }
+    public double getUnknownWordRate(){
+        long n = tokens.sum();
+        return (n == 0) ? 0.0 : (double) unknownTokens.sum() / n;
+    }
+    // Tokens per second since the metrics are created or reset
+    public double getTokensPerSecond(){
+        long elapsed = System.nanoTime() - startTime;
+        return (elapsed <= 0) ? 0.0 : tokens.sum() * 1e9 / elapsed;
+    }
+    public double getModelLoadMillis(){
+        return modelLoadNanos.get() / 1e6;
+    }
+    public double getLatencyP50Micros(){
+        return totalLatency.percentile(0.5) / 1e3;
+    }
+    public double getLatencyP99Micros(){
+        return totalLatency.percentile(0.99) / 1e3;
+    }
+    public double getLatencyP999Micros(){
+        return totalLatency.percentile(0.999) / 1e3;
+    }
+    // One line for each sentence length with the number of sentences and the latency percentiles
+    public String[] getLatencyReport(){
+        String[] report = new String[LENGTH_BUCKETS.length];
+        for(int i = 0; i < LENGTH_BUCKETS.length; i++) {
+            String lengths = (i == LENGTH_BUCKETS.length - 1) ? (LENGTH_BUCKETS[i - 1] + 1) + "+" :
+                    ((i == 0) ? 1 : LENGTH_BUCKETS[i - 1] + 1) + "-" + LENGTH_BUCKETS[i];
+            report[i] = String.format("%s words: %d sentences, p50 %.1f us, p99 %.1f us, p999 %.1f us",
+                    lengths, latencies[i].count(), latencies[i].percentile(0.5) / 1e3,
+                    latencies[i].percentile(0.99) / 1e3, latencies[i].percentile(0.999) / 1e3);
+        }
+        return report;
+    }
+    // Summary line of the metrics
+    public String summary(){
+        return String.format("%d sentences, %.0f tokens/sec, unknown words %.2f%%, p50 %.1f us, p99 %.1f us, p999 %.1f us",
+                getSentences(), getTokensPerSecond(), 100 * getUnknownWordRate(),
+                getLatencyP50Micros(), getLatencyP99Micros(), getLatencyP999Micros());
+    }
+
+    // === Operations ===
+    public void reset(){
+        sentences.reset();
+        tokens.reset();
+        unknownTokens.reset();
+        for(Histogram h : latencies)
+            h.reset();
+        totalLatency.reset();
+        startTime = System.nanoTime();
+    }
+
+    // === Exposing the metrics ===
+    // Registers the metrics in the platform MBean server, replacing the metrics registered before
+    // The MBean server is started by a background thread, so it does not delay the tagging
+    public void register(){
+        Thread registration = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+                    ObjectName name = new ObjectName(OBJECT_NAME);
+                    if(server.isRegistered(name))
+                        server.unregisterMBean(name);
+                    server.registerMBean(tagger_metrics.this, name);
+                } catch(JMException e) {
+                    e.printStackTrace();
+                }
+            }
+        }, "tagger_metrics-registration");
+        registration.setDaemon(true);
+        registration.start();
+    }
+    // Prints the summary line on the standard error with the given interval, until the JVM exits
+    public void startLogging(final long interval, final TimeUnit unit){
+        Thread logger = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    while(true) {
+                        unit.sleep(interval);
+                        System.err.println("[metrics] " + summary());
+                    }
+                } catch(InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }, "tagger_metrics-logger");
+        logger.setDaemon(true);
+        logger.start();
+    }
+
+    // Log-linear histogram of nanoseconds
+    // each power of two is split into 8 buckets, so a percentile is within 12.5% of the exact value
+    private static class Histogram {
+        private static final int SUB_BUCKET_BITS = 3;
+        private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+        private final AtomicLongArray counts = new AtomicLongArray(64 * SUB_BUCKETS);
+
+        void record(long nanos){
+            counts.incrementAndGet(index(Math.max(nanos, 0)));
+        }
+        long count(){
+            long n = 0;
+            for(int i = 0; i < counts.length(); i++)
+                n += counts.get(i);
+            return n;
+        }
+        // Upper limit of the bucket of the percentile, 0 if nothing is recorded
+        double percentile(double p){
+            long n = count();
+            if(n == 0) return 0.0;
+
+            long rank = (long) Math.ceil(p * n), seen = 0;
+            for(int i = 0; i < counts.length(); i++) {
+                seen += counts.get(i);
+                if(seen >= Math.max(rank, 1))
+                    return upperLimit(i);
+            }
+            return upperLimit(counts.length() - 1);
+        }
+        void reset(){
+            for(int i = 0; i < counts.length(); i++)
+                counts.set(i, 0);
+        }
+
+        private static int index(long value){
+            if(value < SUB_BUCKETS) return (int) value;
+            int exponent = 63 - Long.numberOfLeadingZeros(value);
+            int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+            return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+        }
+        private static double upperLimit(int index){
+            if(index < SUB_BUCKETS) return index;
+            int exponent = index / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+            int subBucket = index % SUB_BUCKETS;
+            return (double) ((long) (SUB_BUCKETS + subBucket + 1) << (exponent - SUB_BUCKET_BITS)) - 1;
+        }
+    }
+}
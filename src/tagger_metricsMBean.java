@@ -0,0 +1,19 @@
+/**
+ * Management interface of the tagger_metrics, exposed through JMX.
+ * Latencies are in microseconds.
+ */
+public interface tagger_metricsMBean {
+    long getSentences();
+    long getTokens();
+    long getUnknownTokens();
+    double getUnknownWordRate();
+    double getTokensPerSecond();
+    double getModelLoadMillis();
+
+    double getLatencyP50Micros();
+    double getLatencyP99Micros();
+    double getLatencyP999Micros();
+    String[] getLatencyReport();
+
+    void reset();
+}
@@ -0,0 +1,262 @@
+import java.io.*;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+
+/**
+ * Resident tagging server.
+ * The model is loaded once and sentences are tagged over a loopback TCP socket.
+ *
+ * A client sends UTF-8 lines, one sentence per line, and receives one line per sentence
+ * in the same format as the output of run_tagger, in the order the sentences are sent.
+ * Sentences from all the connections are collected into small batches,
+ * and the batches are tagged by a pool of worker threads.
+ *
+ * The model file is watched, and when it is replaced (e.g. by update_model) the new model is loaded
+ * and swapped in. A batch is tagged with the model it started with, so no sentence is dropped.
+ */
+public class tagging_server {
+
+    // Micro-batching
+    // a batch is dispatched when it is full or when its first sentence waited long enough
+    private static final int MAX_BATCH_SIZE = 32;
+    private static final long MAX_BATCH_DELAY = TimeUnit.MILLISECONDS.toNanos(2);
+
+    // Server parameters
+    private static File modelFile;
+    private static int port;
+    private static int numOfThreads = Runtime.getRuntime().availableProcessors();
+
+    // HMM POS model in its index-based form, replaced as a whole when the model file changes
+    private static final long MODEL_CHECK_INTERVAL = TimeUnit.SECONDS.toMillis(1);
+    private static volatile compiled_model model;
+
+    // Runtime metrics of all the models, exposed through JMX and printed periodically if an interval is given
+    private static final tagger_metrics metrics = new tagger_metrics();
+    private static int metricsInterval = 0;
+
+    // Sentences waiting to be batched, and the workers tagging the batches
+    private static final BlockingQueue<TaggingRequest> pending = new LinkedBlockingQueue<>();
+    private static ExecutorService workers;
+
+    public static void main(String[] args){
+        // Initialization
+        argumentCheck(args);
+
+        try {
+            // Model loading
+            long start = System.nanoTime();
+            model = run_tagger.loadHMMModel(modelFile);
+            metrics.recordModelLoad(System.nanoTime() - start);
+            model.setMetrics(metrics);
+            metrics.register();
+            if(metricsInterval > 0)
+                metrics.startLogging(metricsInterval, TimeUnit.SECONDS);
+            println("Model is loaded in " + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + " ms!");
+
+            // Start the batcher and the workers
+            workers = Executors.newFixedThreadPool(numOfThreads);
+            Thread batcher = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    batchRequests();
+                }
+            }, "tagging_server-batcher");
+            batcher.setDaemon(true);
+            batcher.start();
+
+            // Watch the model file
+            Thread watcher = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    watchModelFile();
+                }
+            }, "tagging_server-watcher");
+            watcher.setDaemon(true);
+            watcher.start();
+
+            // Accept the connections
+            serve();
+        } catch(IOException e) {
+            e.printStackTrace();
+        } catch(ClassNotFoundException e) {
+            e.printStackTrace();
+        }
+    }
+    public static void argumentCheck(String[] args){
+        if(args.length >= 2 && args.length <= 4) {
+            modelFile = new File(args[0]);
+            try {
+                port = Integer.parseInt(args[1]);
+                if (args.length >= 3)
+                    numOfThreads = Integer.parseInt(args[2]);
+                if (args.length == 4)
+                    metricsInterval = Integer.parseInt(args[3]);
+            } catch (NumberFormatException e) {
+                port = -1;
+            }
+        }
+
+        if(args.length < 2 || args.length > 4 || port < 0 || port > 65535 || numOfThreads < 1 || metricsInterval < 0) {
+            System.err.println("usage: java tagging_server <model_file> <port> [num_of_threads [metrics_interval_seconds]]");
+            System.exit(1);
+        }
+    }
+
+    // == Accept the connections ==
+    // Each connection is handled by its own thread
+    private static void serve() throws IOException {
+        ServerSocket serverSocket = new ServerSocket(port, 50, InetAddress.getLoopbackAddress());
+        ExecutorService connections = Executors.newCachedThreadPool();
+        println("Tagging server is listening on " + serverSocket.getLocalSocketAddress());
+
+        try {
+            while (!serverSocket.isClosed()) {
+                final Socket socket = serverSocket.accept();
+                connections.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        handleConnection(socket);
+                    }
+                });
+            }
+        } finally {
+            serverSocket.close();
+            connections.shutdownNow();
+            workers.shutdownNow();
+        }
+    }
+
+    // == Handle a connection ==
+    // All the lines which are already received are submitted together,
+    // then their responses are written in order
+    private static void handleConnection(Socket socket){
+        try {
+            BufferedReader r = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+            BufferedWriter w = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8));
+            try {
+                List<TaggingRequest> requests = new ArrayList<>();
+                String line;
+                while ((line = r.readLine()) != null) {
+                    requests.add(submit(line));
+                    if (r.ready() && requests.size() < MAX_BATCH_SIZE)
+                        continue;
+
+                    for (TaggingRequest request : requests) {
+                        w.write(request.response.get());
+                        w.newLine();
+                    }
+                    w.flush();
+                    requests.clear();
+                }
+            } finally {
+                socket.close();
+            }
+        } catch(IOException e) {
+            e.printStackTrace();
+        } catch(ExecutionException e) {
+            e.printStackTrace();
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+    private static TaggingRequest submit(String line){
+        TaggingRequest request = new TaggingRequest(line);
+        pending.add(request);
+        return request;
+    }
+
+    // == Micro-batching ==
+    // Waits for the first pending sentence, then collects more sentences until
+    // the batch is full or the batch delay has passed, and hands the batch to a worker
+    private static void batchRequests(){
+        try {
+            while (true) {
+                final List<TaggingRequest> batch = new ArrayList<>(MAX_BATCH_SIZE);
+                batch.add(pending.take());
+
+                long deadline = System.nanoTime() + MAX_BATCH_DELAY;
+                while (batch.size() < MAX_BATCH_SIZE) {
+                    pending.drainTo(batch, MAX_BATCH_SIZE - batch.size());
+                    long remaining = deadline - System.nanoTime();
+                    if (batch.size() == MAX_BATCH_SIZE || remaining <= 0)
+                        break;
+
+                    TaggingRequest request = pending.poll(remaining, TimeUnit.NANOSECONDS);
+                    if (request == null)
+                        break;
+                    batch.add(request);
+                }
+
+                workers.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        tagBatch(batch);
+                    }
+                });
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+    private static void tagBatch(List<TaggingRequest> batch){
+        final compiled_model model = tagging_server.model;
+        for (TaggingRequest request : batch) {
+            try {
+                request.response.complete(tagging_stream.tagLine(model, request.line));
+            } catch (RuntimeException e) {
+                request.response.completeExceptionally(e);
+            }
+        }
+    }
+
+    // == Hot swap of the model ==
+    // The file is checked periodically, and a changed file is loaded before it replaces the current model
+    // If the new file can not be loaded the current model is kept
+    private static void watchModelFile(){
+        long lastModified = modelFile.lastModified(), length = modelFile.length();
+        try {
+            while (true) {
+                Thread.sleep(MODEL_CHECK_INTERVAL);
+                if (modelFile.lastModified() == lastModified && modelFile.length() == length)
+                    continue;
+                lastModified = modelFile.lastModified();
+                length = modelFile.length();
+
+                try {
+                    long start = System.nanoTime();
+                    compiled_model reloaded = run_tagger.loadHMMModel(modelFile);
+                    metrics.recordModelLoad(System.nanoTime() - start);
+                    reloaded.setMetrics(metrics);
+                    model = reloaded;
+                    println("Model is reloaded in " + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + " ms!");
+                } catch (IOException e) {
+                    e.printStackTrace();
+                } catch (ClassNotFoundException e) {
+                    e.printStackTrace();
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // === Auxiliary functions ===
+    private static void println(Object o){
+        System.out.println(o.toString());
+    }
+
+    // A sentence waiting for its tags
+    private static class TaggingRequest {
+        final String line;
+        final CompletableFuture<String> response = new CompletableFuture<>();
+
+        TaggingRequest(String line){
+            this.line = line;
+        }
+    }
+}
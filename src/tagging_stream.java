@@ -0,0 +1,275 @@
+import java.io.*;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.function.Function;
+import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Streaming tagging API on top of a compiled model.
+ * Sentences are tagged one line at a time, so any size of corpus is tagged with bounded memory.
+ *
+ * Files are read and written as UTF-8. The path "-" is the standard input or output,
+ * gzip compressed input is detected automatically and output paths ending with ".gz" are compressed.
+ *
+ * Plain files can also be tagged at the byte level: the input is memory-mapped, the words are looked up
+ * in the vocabulary by their bytes and the output is written from a direct buffer, without any String.
+ */
+public class tagging_stream {
+
+    // Path of the standard input and output
+    public static final String STANDARD_STREAM = "-";
+
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    // === Tag a single line ===
+    // Returns the words of the line with their predicted tags
+    public static String tagLine(compiled_model model, String line){
+        return join(tagSentence(model, token_normalizer.split(line)));
+    }
+    // Returns each word with its predicted tag as word/TAG
+    // The words are normalized like the training data, but they are written as they are
+    public static String[] tagSentence(compiled_model model, String[] words){
+        int[] predictedTags = model.viberti(token_normalizer.normalize(words));
+
+        String[] taggedWords = new String[words.length];
+        for (int i = 0; i < words.length; i++)
+            taggedWords[i] = words[i] + "/" + model.getTag(predictedTags[i]);
+        return taggedWords;
+    }
+
+    // === Tag a reader into a writer ===
+    // Every line of the reader is a sentence, the writer is flushed but not closed
+    public static void tag(compiled_model model, Reader in, Writer out) throws IOException {
+        BufferedReader r = (in instanceof BufferedReader) ? (BufferedReader) in : new BufferedReader(in, BUFFER_SIZE);
+        String line;
+        while ((line = r.readLine()) != null) {
+            out.write(tagLine(model, line));
+            out.write(System.lineSeparator());
+        }
+        out.flush();
+    }
+
+    // === Tag a reader into a writer with the online decoding ===
+    // The words are read one at a time and they are written with their tags as soon as the tags are committed,
+    // so the memory of a line of any length is bounded by the window of the online decoding
+    // The output is the same as the output of tag unless a line forces a commit of the window
+    public static void tagOnline(compiled_model model, Reader in, Writer out, int window) throws IOException {
+        OnlineTagger tagger = new OnlineTagger(model, out, window);
+        char[] buffer = new char[BUFFER_SIZE];
+        int n;
+        while ((n = in.read(buffer)) != -1)
+            for (int i = 0; i < n; i++)
+                tagger.read(buffer[i]);
+        tagger.endOfInput();
+        out.flush();
+    }
+
+    // === Tag a plain file into a channel at the byte level ===
+    // The output is the same as the output of tag, the channel is closed
+    public static void tag(compiled_model model, File in, WritableByteChannel out) throws IOException {
+        // UTF-8 bytes of the tags
+        byte[][] tagBytes = new byte[model.getNumOfTags()][];
+        for(int tag = 0; tag < tagBytes.length; tag++)
+            tagBytes[tag] = model.getTag(tag).getBytes(StandardCharsets.UTF_8);
+
+        corpus_reader r = new corpus_reader(in);
+        corpus_writer w = new corpus_writer(out);
+        try {
+            byte[] normalized = new byte[256];
+            int[] wordIds = new int[64];
+            while (r.nextLine()) {
+                final byte[] line = r.getLine();
+                final int T = r.getNumOfTokens();
+                if (wordIds.length < T) wordIds = new int[Math.max(T, 2 * wordIds.length)];
+                if (normalized.length < r.getLineLength()) normalized = new byte[Math.max(r.getLineLength(), 2 * normalized.length)];
+
+                // word ids of the normalized words
+                for (int t = 0; t < T; t++)
+                    wordIds[t] = getWordId(model, line, r.getTokenStart(t), r.getTokenEnd(t), normalized);
+                int[] predictedTags = model.viberti(wordIds, T);
+
+                // the words are written as they are, with their predicted tags
+                for (int t = 0; t < T; t++) {
+                    if (t > 0) w.write((byte) ' ');
+                    w.write(line, r.getTokenStart(t), r.getTokenEnd(t) - r.getTokenStart(t));
+                    w.write((byte) '/');
+                    w.write(tagBytes[predictedTags[t]]);
+                }
+                w.newLine();
+            }
+        } finally {
+            r.close();
+            w.close();
+        }
+    }
+    // Returns the id of the normalized word of the bytes [start, end), or the unknown word id
+    private static int getWordId(compiled_model model, byte[] bytes, int start, int end, byte[] normalized){
+        int length = token_normalizer.normalize(bytes, start, end - start, normalized);
+        if(length == -1)
+            return model.getWordId(token_normalizer.normalize(new String(bytes, start, end - start, StandardCharsets.UTF_8)));
+        return model.getWordId(normalized, 0, length);
+    }
+    // Returns true if the path is a file which can be tagged at the byte level, i.e. it is not the standard input and not compressed
+    public static boolean isPlainFile(String path) throws IOException {
+        if(path.equals(STANDARD_STREAM)) return false;
+
+        InputStream in = new FileInputStream(path);
+        try {
+            return !(in.read() == 0x1f && in.read() == 0x8b);
+        } finally {
+            in.close();
+        }
+    }
+
+    // === Lazy stream of the tagged sentences of a reader ===
+    // Each element is a sentence as its words with their predicted tags
+    public static Stream<String[]> taggedSentences(final compiled_model model, BufferedReader in){
+        return in.lines().map(new Function<String, String[]>() {
+            @Override
+            public String[] apply(String line) {
+                return tagSentence(model, token_normalizer.split(line));
+            }
+        });
+    }
+
+    // === Open the input and the output ===
+    public static BufferedReader openReader(String path) throws IOException {
+        InputStream in = new BufferedInputStream(
+                path.equals(STANDARD_STREAM) ? new NonClosingInputStream(System.in) : new FileInputStream(path), BUFFER_SIZE);
+
+        // gzip streams start with the magic number 0x1f8b
+        in.mark(2);
+        boolean gzip = in.read() == 0x1f && in.read() == 0x8b;
+        in.reset();
+        if(gzip) in = new GZIPInputStream(in, BUFFER_SIZE);
+
+        return new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8), BUFFER_SIZE);
+    }
+    public static BufferedWriter openWriter(String path) throws IOException {
+        OutputStream out = path.equals(STANDARD_STREAM) ? new NonClosingOutputStream(System.out) : new FileOutputStream(path);
+        if(path.endsWith(".gz")) out = new GZIPOutputStream(out, BUFFER_SIZE);
+
+        return new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8), BUFFER_SIZE);
+    }
+
+    // Tagged words of a sentence separated by spaces
+    private static String join(String[] taggedWords){
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < taggedWords.length; i++)
+            sb.append((i == 0) ? "" : " ").append(taggedWords[i]);
+        return sb.toString();
+    }
+
+    // Online tagging of the characters of a reader
+    // The lines and the words are split like BufferedReader.readLine and token_normalizer.split,
+    // the empty words between two spaces are only decoded when a word follows them, since the trailing ones are dropped
+    private static class OnlineTagger {
+        private final compiled_model model;
+        private final online_viberti decoder;
+        private final Writer out;
+
+        // Words which are decoded but whose tags are not written yet
+        private final ArrayDeque<String> pendingWords = new ArrayDeque<>();
+        private int numOfWrittenWords;
+
+        // Current line
+        private final StringBuilder word = new StringBuilder();
+        private int numOfEmptyWords;
+        private boolean hasSpace, hasCharacters, afterCarriageReturn;
+
+        OnlineTagger(compiled_model model, Writer out, int window){
+            this.model = model;
+            this.decoder = new online_viberti(model, window);
+            this.out = out;
+        }
+
+        void read(char c) throws IOException {
+            // "\r\n" is a single line break
+            if (afterCarriageReturn) {
+                afterCarriageReturn = false;
+                if (c == '\n') return;
+            }
+
+            if (c == '\n' || c == '\r') {
+                afterCarriageReturn = c == '\r';
+                endLine();
+            } else if (c == ' ') {
+                endWord();
+                hasSpace = true;
+                hasCharacters = true;
+            } else {
+                word.append(c);
+                hasCharacters = true;
+            }
+        }
+        void endOfInput() throws IOException {
+            if (hasCharacters) endLine();
+        }
+
+        private void endWord() throws IOException {
+            if (word.length() == 0) {
+                numOfEmptyWords++;
+                return;
+            }
+            for (; numOfEmptyWords > 0; numOfEmptyWords--)
+                decode("");
+            decode(word.toString());
+            word.setLength(0);
+        }
+        private void endLine() throws IOException {
+            // a line without any space is a single word, even if it is empty
+            if (!hasSpace) decode(word.toString());
+            else if (word.length() > 0) endWord();
+
+            write(decoder.finish());
+            out.write(System.lineSeparator());
+
+            word.setLength(0);
+            numOfEmptyWords = 0;
+            numOfWrittenWords = 0;
+            hasSpace = false;
+            hasCharacters = false;
+        }
+        private void decode(String w) throws IOException {
+            pendingWords.addLast(w);
+            write(decoder.push(model.getWordId(token_normalizer.normalize(w))));
+        }
+        // Writes the words of the committed tags
+        private void write(int numOfCommittedTags) throws IOException {
+            for (int i = 0; i < numOfCommittedTags; i++) {
+                if (numOfWrittenWords++ > 0) out.write(' ');
+                out.write(pendingWords.removeFirst());
+                out.write('/');
+                out.write(model.getTag(decoder.getCommittedTag(i)));
+            }
+        }
+    }
+
+    // Standard streams are only flushed when the reader or the writer is closed
+    private static class NonClosingInputStream extends FilterInputStream {
+        NonClosingInputStream(InputStream in){
+            super(in);
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+    private static class NonClosingOutputStream extends FilterOutputStream {
+        NonClosingOutputStream(OutputStream out){
+            super(out);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+        }
+        @Override
+        public void close() throws IOException {
+            flush();
+        }
+    }
+}
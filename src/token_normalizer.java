@@ -0,0 +1,114 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Tokenizer and word normalizer shared by the training, the validation and the tagging,
+ * so a word is looked up in the model exactly as it was counted.
+ *
+ * A word is normalized by collapsing each run of the digits 0-9 into a single '#' and by lowercasing it.
+ * Both are done in a single scan of the characters, and a word which is already normalized is returned as it is.
+ */
+public class token_normalizer {
+
+    // Words are lowercased
+    public static final boolean USE_LOWER_CASE_LETTERS = true;
+
+    // Separator of the words in a sentence and of the word and the tag in a POS-tagged word
+    private static final char WORD_SEPARATOR = ' ';
+    private static final char TAG_SEPARATOR = '/';
+
+    // === Split a sentence into its tokens ===
+    // Splits at every space like line.split(" "): empty tokens between spaces are kept, trailing ones are dropped
+    public static String[] split(String line){
+        List<String> tokens = new ArrayList<>();
+        int start = 0;
+        for(int i = line.indexOf(WORD_SEPARATOR); i != -1; i = line.indexOf(WORD_SEPARATOR, start)) {
+            tokens.add(line.substring(start, i));
+            start = i + 1;
+        }
+        if(start == 0) return new String[]{line};
+        tokens.add(line.substring(start));
+
+        int size = tokens.size();
+        while(size > 0 && tokens.get(size - 1).isEmpty()) size--;
+        return tokens.subList(0, size).toArray(new String[size]);
+    }
+
+    // === Separate a POS-tagged word ===
+    // Returns the index of the separator of the word and its tag, or -1 if the token is not tagged
+    public static int tagSeparator(String token){
+        return token.lastIndexOf(TAG_SEPARATOR);
+    }
+    // Returns the normalized word of a POS-tagged token
+    public static String taggedWord(String token, int separator){
+        return normalize(token, 0, separator);
+    }
+    public static String tag(String token, int separator){
+        return token.substring(separator + 1);
+    }
+
+    // === Normalize words ===
+    public static String normalize(String word){
+        return normalize(word, 0, word.length());
+    }
+    // Normalizes the characters [start, end) of the string
+    public static String normalize(String s, int start, int end){
+        // find the first character which is changed, most words do not have any
+        int i = start;
+        while(i < end && !changes(s.charAt(i))) i++;
+        if(i == end)
+            return (start == 0 && end == s.length()) ? s : s.substring(start, end);
+
+        StringBuilder sb = new StringBuilder(end - start);
+        sb.append(s, start, i);
+        boolean ascii = true;
+        for(; i < end; i++) {
+            char c = s.charAt(i);
+            if(c >= '0' && c <= '9') {
+                sb.append('#');
+                while(i + 1 < end && s.charAt(i + 1) >= '0' && s.charAt(i + 1) <= '9') i++;
+            } else if(c < 0x80) {
+                sb.append((USE_LOWER_CASE_LETTERS && c >= 'A' && c <= 'Z') ? (char) (c + ('a' - 'A')) : c);
+            } else {
+                sb.append(c);
+                ascii = false;
+            }
+        }
+
+        // the other characters are lowercased by String.toLowerCase, which handles the special cases of Unicode
+        return (ascii || !USE_LOWER_CASE_LETTERS) ? sb.toString() : sb.toString().toLowerCase(Locale.ROOT);
+    }
+    // Normalizes the UTF-8 bytes [offset, offset + length) of a word into normalized, which must be long enough
+    // Returns the length of the normalized word, or -1 if the word has non-ASCII bytes,
+    // which are only lowercased by the normalization of the decoded String
+    public static int normalize(byte[] bytes, int offset, int length, byte[] normalized){
+        int n = 0;
+        for(int i = offset; i < offset + length; i++) {
+            byte b = bytes[i];
+            if(b >= '0' && b <= '9') {
+                normalized[n++] = '#';
+                while(i + 1 < offset + length && bytes[i + 1] >= '0' && bytes[i + 1] <= '9') i++;
+            } else if(b < 0) {
+                if(USE_LOWER_CASE_LETTERS) return -1;
+                normalized[n++] = b;
+            } else {
+                normalized[n++] = (USE_LOWER_CASE_LETTERS && b >= 'A' && b <= 'Z') ? (byte) (b + ('a' - 'A')) : b;
+            }
+        }
+        return n;
+    }
+    // Returns the normalized words
+    public static String[] normalize(String[] words){
+        String[] normalized = new String[words.length];
+        for(int i = 0; i < words.length; i++)
+            normalized[i] = normalize(words[i]);
+        return normalized;
+    }
+
+    // === Auxiliary functions ===
+    // Characters which can be changed by the normalization
+    private static boolean changes(char c){
+        return (c >= '0' && c <= '9') || (USE_LOWER_CASE_LETTERS && ((c >= 'A' && c <= 'Z') || c >= 0x80));
+    }
+}
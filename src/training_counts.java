@@ -0,0 +1,236 @@
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * Counts collected from the POS-tagged training data.
+ * Each training thread collects its own counts, which are then merged.
+ * Merging is associative and commutative, so the merged counts
+ * do not depend on how the training data is split.
+ *
+ * The counts are kept by the ids of the tags and the words in primitive arrays, so a token is counted
+ * without any boxing or string concatenation. They are converted into the count tables of the pos_model,
+ * keyed by the tags and the words, when the counting is over.
+ */
+public class training_counts {
+
+    private final String startTag;
+    private final String endTag;
+
+    // Tags are counted by their ids, the ids of the tag space are in its iteration order
+    // the start tag is the row N of the transitions and the end tag is the column N
+    private final List<String> tags;
+    private final vocabulary tagIds;
+    private final int numOfTags;
+
+    // HMM parameters for training, counted by the tag and the word ids
+    // the trigram count of curr after prev2 and prev1 is at (prev2 * (N + 1) + prev1) * (N + 1) + curr,
+    // the observation counts of a tag are its word id to count table
+    private final long[][] transitions;
+    private final long[] trigramTransitions;
+    private final vocabulary words;
+    private final count_table[] observations;
+    private final long[] singletonTagCount;
+    private int totalNumOfTokens;
+
+    public training_counts(Set<String> tagSpace, String startTag, String endTag){
+        this.startTag = startTag;
+        this.endTag = endTag;
+
+        tags = new ArrayList<>(tagSpace);
+        tagIds = new vocabulary(tags.size());
+        for(String tag : tags)
+            tagIds.add(tag);
+        numOfTags = tags.size();
+
+        final int M = numOfTags + 1;
+        transitions = new long[M][M];
+        trigramTransitions = new long[M * M * M];
+        words = new vocabulary();
+        observations = new count_table[numOfTags];
+        for(int tag = 0; tag < numOfTags; tag++)
+            observations[tag] = new count_table();
+        singletonTagCount = new long[numOfTags];
+        totalNumOfTokens = 0;
+    }
+
+    // === Getters ===
+    // The counts are converted into the count tables of the pos_model, keyed by the tags and the words
+    // every tag has a transition row with all the tags and the end tag, the start tag has all the tags
+    public Map<String, HashMap<String, Double>> getTransitions(){
+        Map<String, HashMap<String, Double>> rows = new HashMap<>();
+        for(int prev = 0; prev <= numOfTags; prev++) {
+            HashMap<String, Double> row = new HashMap<>();
+            for(int curr = 0; curr < numOfTags; curr++)
+                row.put(tags.get(curr), (double) transitions[prev][curr]);
+            if(prev < numOfTags) {
+                row.put(endTag, (double) transitions[prev][numOfTags]);
+                rows.put(tags.get(prev), row);
+            } else
+                rows.put(startTag, row);
+        }
+        return rows;
+    }
+    // Observation counts, every tag has a row with the words it is observed with
+    // the words whose counts are subtracted to 0 are not observed
+    public Map<String, HashMap<String, Double>> getObservations(){
+        Map<String, HashMap<String, Double>> rows = new HashMap<>();
+        for(int tag = 0; tag < numOfTags; tag++) {
+            final count_table counts = observations[tag];
+            HashMap<String, Double> row = new HashMap<>();
+            for(int slot = 0; slot < counts.getCapacity(); slot++)
+                if(counts.hasKey(slot) && counts.getCount(slot) != 0)
+                    row.put(words.getWord(counts.getKey(slot)), (double) counts.getCount(slot));
+            rows.put(tags.get(tag), row);
+        }
+        return rows;
+    }
+    // Trigram transition counts, the rows are the tag pairs "prev2 prev1" which are observed
+    public Map<String, HashMap<String, Double>> getTrigramTransitions(){
+        final int M = numOfTags + 1;
+        Map<String, HashMap<String, Double>> rows = new HashMap<>();
+        for(int prev2 = 0; prev2 < M; prev2++)
+            for(int prev1 = 0; prev1 < M; prev1++)
+                for(int curr = 0; curr < M; curr++) {
+                    long count = trigramTransitions[(prev2 * M + prev1) * M + curr];
+                    if(count == 0) continue;
+
+                    String context = getPrevTag(prev2) + " " + getPrevTag(prev1);
+                    if(!rows.containsKey(context))
+                        rows.put(context, new HashMap<String, Double>());
+                    rows.get(context).put(getCurrTag(curr), (double) count);
+                }
+        return rows;
+    }
+    public Map<String, Integer> getSingletonTagCount(){
+        Map<String, Integer> counts = new HashMap<>();
+        for(int tag = 0; tag < numOfTags; tag++)
+            counts.put(tags.get(tag), (int) singletonTagCount[tag]);
+        return counts;
+    }
+    public int getTotalNumOfTokens(){
+        return totalNumOfTokens;
+    }
+
+    // === Ids of the tags and the words ===
+    // Returns the id of a tag of the tag space, or the id N of the start tag for the previous tags
+    public int getPrevTagId(String tag){
+        return tag.equals(startTag) ? numOfTags : getTagId(tag);
+    }
+    // Returns the id of a tag of the tag space, or the id N of the end tag for the current tags
+    public int getCurrTagId(String tag){
+        return tag.equals(endTag) ? numOfTags : getTagId(tag);
+    }
+    public int getTagId(String tag){
+        int id = tagIds.getId(tag);
+        if(id == -1)
+            throw new IllegalArgumentException("\'" + tag + "\' is not a valid PENN Treebank tag.");
+        return id;
+    }
+    // Returns the id of the tag encoded in the bytes [offset, offset + length) as UTF-8
+    public int getTagId(byte[] bytes, int offset, int length){
+        int id = tagIds.getId(bytes, offset, length);
+        if(id == -1)
+            return getTagId(new String(bytes, offset, length, StandardCharsets.UTF_8));
+        return id;
+    }
+    public int getStartTagId(){
+        return numOfTags;
+    }
+    public int getEndTagId(){
+        return numOfTags;
+    }
+    // Returns the id of the word, the words get their ids when they are first counted
+    public int addWord(String word){
+        return words.add(word);
+    }
+    public int addWord(byte[] bytes, int offset, int length){
+        return words.add(bytes, offset, length);
+    }
+
+    // === Insert methods ===
+    public void insertTag(String tag){
+        insertTag(getTagId(tag));
+    }
+    public void insertTag(int tag){
+        singletonTagCount[tag]++;
+        totalNumOfTokens++;
+    }
+    public void insertTransition(String tagPrev, String tagCurr) {
+        insertTransition(getPrevTagId(tagPrev), getCurrTagId(tagCurr));
+    }
+    public void insertTransition(int tagPrev, int tagCurr) {
+        transitions[tagPrev][tagCurr]++;
+    }
+    public void insertTrigramTransition(String tagPrev2, String tagPrev1, String tagCurr) {
+        insertTrigramTransition(getPrevTagId(tagPrev2), getPrevTagId(tagPrev1), getCurrTagId(tagCurr));
+    }
+    public void insertTrigramTransition(int tagPrev2, int tagPrev1, int tagCurr) {
+        final int M = numOfTags + 1;
+        trigramTransitions[(tagPrev2 * M + tagPrev1) * M + tagCurr]++;
+    }
+    public void insertObservation(String tag, String word){
+        insertObservation(getTagId(tag), words.add(word));
+    }
+    public void insertObservation(int tag, int word){
+        observations[tag].add(word, 1);
+    }
+
+    // === Merge the counts of another training shard into these counts ===
+    // The tags have the same ids, the words of the other counts get the ids of these counts
+    public void merge(training_counts other){
+        add(other, 1);
+    }
+    // === Subtract the counts of a part of the training data, which are merged into these counts ===
+    // e.g. the counts of a fold are subtracted from the counts of all the folds to get the counts of the other folds
+    public void subtract(training_counts other){
+        add(other, -1);
+    }
+
+    // Adds the counts of the rows of source into target, the missing rows and columns are created
+    static void addRows(Map<String, HashMap<String, Double>> target, Map<String, HashMap<String, Double>> source){
+        for(Map.Entry<String, HashMap<String, Double>> row : source.entrySet()) {
+            if(!target.containsKey(row.getKey()))
+                target.put(row.getKey(), new HashMap<String, Double>());
+
+            HashMap<String, Double> tagState = target.get(row.getKey());
+            for (Map.Entry<String, Double> e : row.getValue().entrySet()) {
+                Double count = tagState.get(e.getKey());
+                tagState.put(e.getKey(), (count == null) ? e.getValue() : count + e.getValue());
+            }
+        }
+    }
+
+    // === Auxiliary functions ===
+    // Adds the counts of the other counts multiplied by the sign
+    private void add(training_counts other, int sign){
+        if(!other.tags.equals(tags))
+            throw new IllegalArgumentException("Training counts of different tag spaces can not be merged.");
+
+        for(int prev = 0; prev <= numOfTags; prev++)
+            for(int curr = 0; curr <= numOfTags; curr++)
+                transitions[prev][curr] += sign * other.transitions[prev][curr];
+        for(int i = 0; i < trigramTransitions.length; i++)
+            trigramTransitions[i] += sign * other.trigramTransitions[i];
+
+        int[] wordIds = new int[other.words.size()];
+        for(int w = 0; w < wordIds.length; w++)
+            wordIds[w] = words.add(other.words.getWord(w));
+        for(int tag = 0; tag < numOfTags; tag++) {
+            final count_table counts = other.observations[tag];
+            for(int slot = 0; slot < counts.getCapacity(); slot++)
+                if(counts.hasKey(slot))
+                    observations[tag].add(wordIds[counts.getKey(slot)], sign * counts.getCount(slot));
+        }
+
+        for(int tag = 0; tag < numOfTags; tag++)
+            singletonTagCount[tag] += sign * other.singletonTagCount[tag];
+
+        totalNumOfTokens += sign * other.totalNumOfTokens;
+    }
+    private String getPrevTag(int tag){
+        return (tag == numOfTags) ? startTag : tags.get(tag);
+    }
+    private String getCurrTag(int tag){
+        return (tag == numOfTags) ? endTag : tags.get(tag);
+    }
+}
@@ -0,0 +1,62 @@
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * Updates a model file with new POS-tagged sentences.
+ * The counts of the new sentences are added to the counts saved in the model file,
+ * and only the probabilities are derived again, the interpolation parameters and the precision of the model are kept.
+ *
+ * The updated model is written next to the output file and then moved over it,
+ * so a running tagging_server which watches the file never sees a partially written model.
+ */
+public class update_model {
+
+    public static void main(String[] args){
+        if(args.length != 3) {
+            System.err.println("usage: java update_model <model_file> <sents.train> <updated_model_file>");
+            System.exit(1);
+        }
+
+        try {
+            File modelFile = new File(args[0]);
+            File deltaFile = new File(args[1]);
+            File updatedModelFile = new File(args[2]).getAbsoluteFile();
+
+            // Model loading
+            pos_model model = binary_model.loadModel(modelFile);
+            final int precision = binary_model.readPrecision(modelFile);
+            println("Model is loaded!");
+
+            // Counting the new sentences
+            training_counts counts = build_tagger.countTrainingData(deltaFile);
+            if(counts == null) {
+                System.err.println("'" + deltaFile + "' could not be counted!");
+                System.exit(1);
+            }
+            model.addCounts(counts);
+            println(counts.getTotalNumOfTokens() + " tokens are added to the model!");
+
+            // Save the updated model in the precision of the model file and replace the output file at once
+            // the saved model is read back first, so a model whose precision is lost never replaces the output file
+            File tempFile = File.createTempFile(updatedModelFile.getName(), ".tmp", updatedModelFile.getParentFile());
+            try {
+                binary_model.save(model, precision, tempFile);
+                if(binary_model.load(tempFile).getPrecision() != precision)
+                    throw new IOException("Updated model is not saved in the precision of " + precision + " bits.");
+                Files.move(tempFile.toPath(), updatedModelFile.toPath(),
+                        StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                tempFile.delete();
+            }
+            println("Model is updated in the precision of " + precision + " bits!");
+        } catch(IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    // === Auxiliary functions ===
+    private static void println(Object o){
+        System.out.println(o.toString());
+    }
+}
@@ -0,0 +1,108 @@
+import java.util.*;
+
+/**
+ * Counts collected while validating the model on the development data.
+ * Each validation thread collects its own counts, which are then merged.
+ */
+public class validation_counts {
+
+    // Interpolation
+    private final Map<String, Integer> singletonTagCount;
+    private final Map<String, Integer> bigramTagCount;
+    private final Map<String, Integer> trigramTagCount;
+
+    // Statistics
+    private final Map<String, HashMap<String, Integer>> contingencyCount;
+    private int totalNumOfPredictions;
+    private int totalNumOfMisclassifications;
+
+    public validation_counts(Set<String> tagSpace){
+        // -- initialize interpolation parameters --
+        singletonTagCount = new HashMap<>();
+        bigramTagCount = new HashMap<>();
+        trigramTagCount = new HashMap<>();
+        for(String tag : tagSpace)
+            singletonTagCount.put(tag, 0);
+
+        // -- initialize contingency table/confusion matrix --
+        contingencyCount = new HashMap<>();
+        for(String tag1 : tagSpace){
+            contingencyCount.put(tag1, new HashMap<>());
+            for(String tag2 : tagSpace)
+                contingencyCount.get(tag1).put(tag2, 0);
+        }
+        totalNumOfPredictions = 0;
+        totalNumOfMisclassifications = 0;
+    }
+
+    // === Getters ===
+    public Map<String, Integer> getSingletonTagCount(){
+        return singletonTagCount;
+    }
+    public Map<String, Integer> getBigramTagCount(){
+        return bigramTagCount;
+    }
+    public Map<String, Integer> getTrigramTagCount(){
+        return trigramTagCount;
+    }
+    public int getContingencyCount(String trueTag, String predictedTag){
+        return contingencyCount.get(trueTag).get(predictedTag);
+    }
+    public int getTotalNumOfPredictions(){
+        return totalNumOfPredictions;
+    }
+    public int getTotalNumOfMisclassifications(){
+        return totalNumOfMisclassifications;
+    }
+
+    // === Insert methods ===
+    // Counts the tags, the tag bigrams and the tag trigrams of a development sentence
+    public void insertTrueTags(String[] trueTags){
+        String prevTag = trueTags[0];
+        incCount(singletonTagCount, trueTags[0]);
+        for(int i = 1; i < trueTags.length; i++){
+            incCount(bigramTagCount, (prevTag + " " + trueTags[i]));
+            incCount(singletonTagCount, trueTags[i]);
+            if(i >= 2)
+                incCount(trigramTagCount, (trueTags[i - 2] + " " + prevTag + " " + trueTags[i]));
+            prevTag = trueTags[i];
+        }
+    }
+    // Updates the contingency counts with the predicted tags of a development sentence
+    public void insertPredictions(String[] trueTags, String[] predictedTags){
+        for(int i = 0; i < trueTags.length; i++){
+            if(!predictedTags[i].equals(trueTags[i])){
+                contingencyCount.get(trueTags[i]).
+                        put(predictedTags[i], contingencyCount.get(trueTags[i]).get(predictedTags[i]) + 1);
+                totalNumOfMisclassifications++;
+            }
+            totalNumOfPredictions++;
+        }
+    }
+
+    // === Merge the counts of another validation thread into these counts ===
+    public void merge(validation_counts other){
+        for(Map.Entry<String, Integer> e : other.singletonTagCount.entrySet())
+            addCount(singletonTagCount, e.getKey(), e.getValue());
+        for(Map.Entry<String, Integer> e : other.bigramTagCount.entrySet())
+            addCount(bigramTagCount, e.getKey(), e.getValue());
+        for(Map.Entry<String, Integer> e : other.trigramTagCount.entrySet())
+            addCount(trigramTagCount, e.getKey(), e.getValue());
+
+        for(Map.Entry<String, HashMap<String, Integer>> row : other.contingencyCount.entrySet())
+            for(Map.Entry<String, Integer> e : row.getValue().entrySet())
+                addCount(contingencyCount.get(row.getKey()), e.getKey(), e.getValue());
+
+        totalNumOfPredictions += other.totalNumOfPredictions;
+        totalNumOfMisclassifications += other.totalNumOfMisclassifications;
+    }
+
+    // === Auxiliary functions ===
+    private static void incCount(Map<String, Integer> map, String token){
+        addCount(map, token, 1);
+    }
+    private static void addCount(Map<String, Integer> map, String token, int count){
+        if(!map.containsKey(token)) map.put(token, count);
+        else map.put(token, map.get(token) + count);
+    }
+}
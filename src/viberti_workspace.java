@@ -0,0 +1,110 @@
+import java.util.Arrays;
+
+/**
+ * Reusable lattice for the Viberti algorithm.
+ * The arrays only grow, so after a few sentences decoding does not allocate them anymore.
+ * A workspace must not be shared between threads.
+ */
+public class viberti_workspace {
+
+    // Log-probabilities and back pointers of the lattice, stored column by column
+    // the cell of the j-th candidate state at the observation t is at t * N + j
+    double[] viberti;
+    int[] backPointer;
+
+    // Word ids of the observations
+    int[] wordIds;
+
+    // Candidate states of each observation, as a range of the tag dictionary
+    int[] offsets;
+    int[] lengths;
+
+    // Beam search, the candidate indices kept in the last column and the scores to select them
+    int[] beam;
+    double[] scores;
+
+    // Vectorized decoding, the maximum of each tag over the previous candidates and the index of the candidate
+    double[] maxScores;
+    int[] maxIndices;
+
+    // Trigram decoding
+    // the kept tag pair states of all the words, the states of the word t start at stateStarts[t]
+    int[] stateStarts;
+    int[] statePrev;
+    int[] stateCurr;
+    double[] stateScores;
+    int[] stateBackPointers;
+    // the slot of each t_i-1 candidate and the candidate of each slot,
+    // the best predecessor of the tag pairs in the slots, and the best scores to select the kept pairs
+    int[] pairSlots;
+    int[] slotCandidates;
+    double[] pairScores;
+    int[] pairBackPointers;
+    double[] pairSelection;
+
+    public viberti_workspace(){
+        viberti = new double[0];
+        backPointer = new int[0];
+        wordIds = new int[0];
+        offsets = new int[0];
+        lengths = new int[0];
+        beam = new int[0];
+        scores = new double[0];
+        maxScores = new double[0];
+        maxIndices = new int[0];
+
+        stateStarts = new int[0];
+        statePrev = new int[0];
+        stateCurr = new int[0];
+        stateScores = new double[0];
+        stateBackPointers = new int[0];
+        pairSlots = new int[0];
+        slotCandidates = new int[0];
+        pairScores = new double[0];
+        pairBackPointers = new int[0];
+        pairSelection = new double[0];
+    }
+
+    // Grows the lattice to hold numOfStates x numOfObservations cells
+    void ensureCapacity(int numOfStates, int numOfObservations){
+        int cells = numOfStates * numOfObservations;
+        if(viberti.length < cells) {
+            int capacity = Math.max(cells, 2 * viberti.length);
+            viberti = new double[capacity];
+            backPointer = new int[capacity];
+        }
+        if(offsets.length < numOfObservations) {
+            int capacity = Math.max(numOfObservations, 2 * offsets.length);
+            wordIds = new int[capacity];
+            offsets = new int[capacity];
+            lengths = new int[capacity];
+        }
+        if(beam.length < numOfStates) {
+            beam = new int[numOfStates];
+            scores = new double[numOfStates];
+            maxScores = new double[numOfStates];
+            maxIndices = new int[numOfStates];
+        }
+    }
+
+    // Grows the arrays of the trigram decoding for numOfStates tags and numOfObservations words
+    void ensureTrigramCapacity(int numOfStates, int numOfObservations){
+        final int maxPairStates = compiled_model.TRIGRAM_MAX_PAIR_STATES;
+        if(pairSlots.length < numOfStates) {
+            pairSlots = new int[numOfStates];
+            Arrays.fill(pairSlots, -1);
+            slotCandidates = new int[maxPairStates];
+            pairScores = new double[maxPairStates * numOfStates];
+            pairBackPointers = new int[maxPairStates * numOfStates];
+            pairSelection = new double[maxPairStates];
+        }
+        if(stateStarts.length < numOfObservations + 1) {
+            int capacity = Math.max(numOfObservations + 1, 2 * stateStarts.length);
+            stateStarts = new int[capacity];
+            statePrev = new int[capacity * maxPairStates];
+            stateCurr = new int[capacity * maxPairStates];
+            stateScores = new double[capacity * maxPairStates];
+            stateBackPointers = new int[capacity * maxPairStates];
+        }
+    }
+}
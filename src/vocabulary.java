@@ -0,0 +1,189 @@
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Interned word to id table.
+ * Words get consecutive ids in the order they are added.
+ * It is an open addressing hash table with linear probing,
+ * so a lookup does not allocate anything.
+ *
+ * Words can also be looked up by their UTF-8 bytes, e.g. straight from a memory-mapped corpus.
+ * The byte index is a second table over the encoded words, which is only built by the first byte lookup.
+ */
+public class vocabulary {
+
+    private static final int EMPTY = -1;
+
+    // slots of the hash table keep the word ids, words keep the interned words by their id
+    private int[] slots;
+    private String[] words;
+    private int size;
+
+    // byte index of the words, null until the first lookup by bytes
+    private volatile ByteIndex byteIndex;
+
+    public vocabulary(){
+        this(16);
+    }
+    public vocabulary(int expectedSize){
+        slots = new int[tableSizeFor(expectedSize)];
+        Arrays.fill(slots, EMPTY);
+        words = new String[Math.max(expectedSize, 16)];
+        size = 0;
+    }
+    // Vocabulary with an already built hash table, e.g. from a model file
+    vocabulary(int[] slots, String[] words){
+        if(Integer.bitCount(slots.length) != 1)
+            throw new IllegalArgumentException("Hash table size must be a power of two.");
+
+        this.slots = slots;
+        this.words = words;
+        this.size = words.length;
+    }
+
+    // === Lookup ===
+    // Returns the id of the word, or -1 if it is not in the vocabulary
+    public int getId(String word){
+        final int mask = slots.length - 1;
+        for(int i = hash(word) & mask; ; i = (i + 1) & mask) {
+            int id = slots[i];
+            if(id == EMPTY) return -1;
+            if(words[id].equals(word)) return id;
+        }
+    }
+    // Returns the id of the word encoded in the bytes [offset, offset + length) as UTF-8, or -1 if it is not in the vocabulary
+    public int getId(byte[] bytes, int offset, int length){
+        final ByteIndex index = getByteIndex();
+        final int[] byteSlots = index.slots;
+        final byte[][] encodedWords = index.words;
+        final int mask = byteSlots.length - 1;
+        for(int i = hash(bytes, offset, length) & mask; ; i = (i + 1) & mask) {
+            int id = byteSlots[i];
+            if(id == EMPTY) return -1;
+            if(equals(encodedWords[id], bytes, offset, length)) return id;
+        }
+    }
+    public String getWord(int id){
+        return words[id];
+    }
+    public int size(){
+        return size;
+    }
+    // Hash table of the vocabulary, only for the model file
+    int[] getSlots(){
+        return slots;
+    }
+
+    // === Insertion ===
+    // Returns the id of the word, the word is added if it is not in the vocabulary
+    public int add(String word){
+        int id = getId(word);
+        if(id != -1) return id;
+
+        // keep the load factor under 0.5
+        if(2 * (size + 1) > slots.length) rehash(2 * slots.length);
+        if(size == words.length) words = Arrays.copyOf(words, Math.max(16, 2 * words.length));
+
+        id = size++;
+        words[id] = word;
+        insertSlot(word, id);
+
+        // keep the byte index up to date if it is already built
+        ByteIndex index = byteIndex;
+        if(index != null)
+            index.add(id, word.getBytes(StandardCharsets.UTF_8));
+        return id;
+    }
+    // Returns the id of the word encoded in the bytes as UTF-8, the word is added if it is not in the vocabulary
+    // The word is only decoded into a String when it is added
+    public int add(byte[] bytes, int offset, int length){
+        int id = getId(bytes, offset, length);
+        if(id != -1) return id;
+
+        return add(new String(bytes, offset, length, StandardCharsets.UTF_8));
+    }
+    private void insertSlot(String word, int id){
+        final int mask = slots.length - 1;
+        int i = hash(word) & mask;
+        while(slots[i] != EMPTY) i = (i + 1) & mask;
+        slots[i] = id;
+    }
+    private void rehash(int capacity){
+        slots = new int[capacity];
+        Arrays.fill(slots, EMPTY);
+        for(int id = 0; id < size; id++)
+            insertSlot(words[id], id);
+    }
+
+    // === Byte index ===
+    private ByteIndex getByteIndex(){
+        ByteIndex index = byteIndex;
+        if(index == null) {
+            synchronized (this) {
+                index = byteIndex;
+                if (index == null) {
+                    index = new ByteIndex(slots.length, words.length);
+                    for (int id = 0; id < size; id++)
+                        index.add(id, words[id].getBytes(StandardCharsets.UTF_8));
+                    byteIndex = index;
+                }
+            }
+        }
+        return index;
+    }
+    // Hash table of the encoded words, with the same load factor as the hash table of the words
+    private static final class ByteIndex {
+        int[] slots;
+        byte[][] words;
+        int size;
+
+        ByteIndex(int tableSize, int capacity){
+            slots = new int[tableSize];
+            Arrays.fill(slots, EMPTY);
+            words = new byte[Math.max(capacity, 16)][];
+        }
+        void add(int id, byte[] word){
+            if(2 * (size + 1) > slots.length) rehash(2 * slots.length);
+            if(id >= words.length) words = Arrays.copyOf(words, Math.max(id + 1, 2 * words.length));
+
+            words[id] = word;
+            insertSlot(id);
+            size++;
+        }
+        private void insertSlot(int id){
+            final int mask = slots.length - 1;
+            int i = hash(words[id], 0, words[id].length) & mask;
+            while(slots[i] != EMPTY) i = (i + 1) & mask;
+            slots[i] = id;
+        }
+        private void rehash(int capacity){
+            slots = new int[capacity];
+            Arrays.fill(slots, EMPTY);
+            for(int id = 0; id < size; id++)
+                insertSlot(id);
+        }
+    }
+
+    // === Auxiliary functions ===
+    private static int hash(byte[] bytes, int offset, int length){
+        int h = 1;
+        for(int i = offset; i < offset + length; i++)
+            h = 31 * h + bytes[i];
+        return h ^ (h >>> 16);
+    }
+    private static boolean equals(byte[] word, byte[] bytes, int offset, int length){
+        if(word.length != length) return false;
+        for(int i = 0; i < length; i++)
+            if(word[i] != bytes[offset + i]) return false;
+        return true;
+    }
+    private static int hash(String word){
+        int h = word.hashCode();
+        return h ^ (h >>> 16);
+    }
+    private static int tableSizeFor(int expectedSize){
+        int n = 16;
+        while(n < 2 * expectedSize) n <<= 1;
+        return n;
+    }
+}